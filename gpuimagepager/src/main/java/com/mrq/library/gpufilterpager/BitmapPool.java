@@ -0,0 +1,151 @@
+package com.mrq.library.gpufilterpager;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 可复用Bitmap池，解码时通过inBitmap复用，避免翻看图片时频繁分配大块内存触发GC。
+ * 按分配字节数分桶，取出时选择不小于需要字节数的最小桶，总字节数超过预算时回收最久未用的。
+ * inBitmap复用不同尺寸的Bitmap需要API 19，更低版本不缓存。可在任意线程调用。
+ */
+class BitmapPool {
+
+    static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+    //复用的Bitmap最多比需要的大几倍，避免用很大的Bitmap装小图
+    private static final int MAX_SIZE_MULTIPLE = 4;
+    private static final int TEMP_STORAGE_SIZE = 32 * 1024;
+    private static final int MAX_TEMP_STORAGE = 4;
+
+    private final TreeMap<Integer, List<Bitmap>> mBuckets = new TreeMap<>();
+    //按放入时间排序，第一个为最久未用
+    private final LinkedList<Bitmap> mOrder = new LinkedList<>();
+    private final List<byte[]> mTempStorage = new ArrayList<>();
+    private long mMaxBytes;
+    private long mBytes;
+    private long mHitCount;
+    private long mMissCount;
+
+    BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * 取出一个可以装下指定尺寸的Bitmap，尺寸和格式由解码时重新配置
+     * @return 没有合适的返回null
+     */
+    synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        if (!isSupported()) {
+            return null;
+        }
+        int bytes = width * height * getBytesPerPixel(config);
+        Map.Entry<Integer, List<Bitmap>> entry = mBuckets.ceilingEntry(bytes);
+        if (entry == null || entry.getKey() > (long) bytes * MAX_SIZE_MULTIPLE) {
+            mMissCount++;
+            return null;
+        }
+        List<Bitmap> bucket = entry.getValue();
+        Bitmap bitmap = bucket.remove(bucket.size() - 1);
+        if (bucket.isEmpty()) {
+            mBuckets.remove(entry.getKey());
+        }
+        mOrder.remove(bitmap);
+        mBytes -= entry.getKey();
+        mHitCount++;
+        return bitmap;
+    }
+
+    /**
+     * 放入不再使用的Bitmap，调用后不能再使用它
+     * @return false 不能复用，没有放入
+     */
+    synchronized boolean put(Bitmap bitmap) {
+        if (bitmap == null || !isSupported() || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return false;
+        }
+        int bytes = bitmap.getAllocationByteCount();
+        if (bytes > mMaxBytes || mOrder.contains(bitmap)) {
+            return false;
+        }
+        List<Bitmap> bucket = mBuckets.get(bytes);
+        if (bucket == null) {
+            bucket = new ArrayList<>(2);
+            mBuckets.put(bytes, bucket);
+        }
+        bucket.add(bitmap);
+        mOrder.add(bitmap);
+        mBytes += bytes;
+        trimToSize(mMaxBytes);
+        return true;
+    }
+
+    synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(mMaxBytes);
+    }
+
+    synchronized void clear() {
+        trimToSize(0);
+        mTempStorage.clear();
+    }
+
+    /**
+     * 取出解码用的临时缓冲区，用完后调用 {@link #releaseTempStorage(byte[])}
+     */
+    synchronized byte[] obtainTempStorage() {
+        if (!mTempStorage.isEmpty()) {
+            return mTempStorage.remove(mTempStorage.size() - 1);
+        }
+        return new byte[TEMP_STORAGE_SIZE];
+    }
+
+    synchronized void releaseTempStorage(byte[] tempStorage) {
+        if (tempStorage != null && mTempStorage.size() < MAX_TEMP_STORAGE) {
+            mTempStorage.add(tempStorage);
+        }
+    }
+
+    synchronized long getBytes() {
+        return mBytes;
+    }
+
+    synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+
+    private void trimToSize(long maxBytes) {
+        while (mBytes > maxBytes && !mOrder.isEmpty()) {
+            Bitmap bitmap = mOrder.removeFirst();
+            int bytes = bitmap.getAllocationByteCount();
+            List<Bitmap> bucket = mBuckets.get(bytes);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                mBuckets.remove(bytes);
+            }
+            mBytes -= bytes;
+            bitmap.recycle();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.mrq.library.gpufilterpager;
+
+/**
+ * Receives the images rendered by {@link GPUImagePager#exportFilters}. All methods are
+ * called on the main thread.
+ */
+public interface ExportCallback {
+
+    /**
+     * Called once per requested filter, in request order.
+     */
+    void onExported(ExportResult result);
+
+    /**
+     * Called after the last filter has been exported. When no image is set, this is
+     * called without any {@link #onExported(ExportResult)}.
+     */
+    void onExportFinished();
+}
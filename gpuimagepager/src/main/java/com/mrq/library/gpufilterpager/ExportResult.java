@@ -0,0 +1,63 @@
+package com.mrq.library.gpufilterpager;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The current image rendered offscreen with one filter, see
+ * {@link GPUImagePager#exportFilters}. Holds either a bitmap or a direct buffer,
+ * depending on how the export was requested; both are null if reading the pixels back failed.
+ */
+public final class ExportResult {
+
+    private final Filter mFilter;
+    private final int mIndex;
+    private final int mWidth;
+    private final int mHeight;
+    private final Bitmap mBitmap;
+    private final ByteBuffer mPixels;
+
+    ExportResult(Filter filter, int index, int width, int height, Bitmap bitmap, ByteBuffer pixels) {
+        mFilter = filter;
+        mIndex = index;
+        mWidth = width;
+        mHeight = height;
+        mBitmap = bitmap;
+        mPixels = pixels;
+    }
+
+    public Filter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Position of the filter in the requested list.
+     */
+    public int getIndex() {
+        return mIndex;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * An ARGB_8888 bitmap, or null when pixels were requested as a buffer.
+     */
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    /**
+     * A direct buffer of RGBA bytes, top row first with no row padding, or null when a
+     * bitmap was requested.
+     */
+    public ByteBuffer getPixels() {
+        return mPixels;
+    }
+}
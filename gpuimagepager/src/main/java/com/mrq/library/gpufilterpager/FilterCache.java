@@ -0,0 +1,163 @@
+package com.mrq.library.gpufilterpager;
+
+import java.util.ArrayList;
+
+/**
+ * 已初始化滤镜的LRU缓存，只能在GL线程中使用。
+ * 以滤镜对象本身（==）作为key，翻页时左中右窗口内的滤镜只需调整顺序，
+ * 不再重复编译shader，只有被淘汰或清空时才调用 {@link Filter#destroy()}。
+ */
+class FilterCache {
+
+    static final int DEFAULT_MAX_SIZE = 5;
+    private static final int MIN_MAX_SIZE = 3;
+
+    //按使用时间排序，下标0为最久未使用
+    private final ArrayList<Filter> mFilters;
+    private final FilterPrewarmer mPrewarmer;
+    private final FrameMetricsRecorder mMetrics;
+    private int mMaxSize;
+
+    private int mOutputWidth;
+    private int mOutputHeight;
+
+    /**
+     * @param maxSize 最多保留的已初始化滤镜个数
+     * @param prewarmer 后台预热，为null时滤镜都在GL线程中初始化
+     * @param metrics 统计初始化和销毁次数，可为null
+     */
+    FilterCache(int maxSize, FilterPrewarmer prewarmer, FrameMetricsRecorder metrics) {
+        mPrewarmer = prewarmer;
+        mMetrics = metrics;
+        mMaxSize = Math.max(maxSize, MIN_MAX_SIZE);
+        mFilters = new ArrayList<>(mMaxSize + MIN_MAX_SIZE);
+    }
+
+    /**
+     * 确保左中右三个滤镜已初始化并标记为最近使用，然后淘汰超出容量的滤镜。
+     * 还在后台预热的滤镜不会加入缓存，预热完成后再次调用
+     * @param left 左侧滤镜，可为null
+     * @param cur 当前滤镜，可为null
+     * @param right 右侧滤镜，可为null
+     */
+    void use(Filter left, Filter cur, Filter right) {
+        use(left);
+        use(cur);
+        use(right);
+        trimToSize(mMaxSize, left, cur, right);
+    }
+
+    /**
+     * 修改缓存容量，最小为3（左中右窗口）
+     * @param maxSize 最多保留的已初始化滤镜个数
+     * @param left 当前左侧滤镜，不会被淘汰
+     * @param cur 当前滤镜，不会被淘汰
+     * @param right 当前右侧滤镜，不会被淘汰
+     */
+    void setMaxSize(int maxSize, Filter left, Filter cur, Filter right) {
+        mMaxSize = Math.max(maxSize, MIN_MAX_SIZE);
+        trimToSize(mMaxSize, left, cur, right);
+    }
+
+    int getMaxSize() {
+        return mMaxSize;
+    }
+
+    int size() {
+        return mFilters.size();
+    }
+
+    /**
+     * @return 滤镜已初始化，可以绘制
+     */
+    boolean contains(Filter filter) {
+        return indexOf(filter) >= 0;
+    }
+
+    /**
+     * GLSurfaceView尺寸变化，通知所有已初始化的滤镜
+     */
+    void onOutputSizeChanged(int width, int height) {
+        mOutputWidth = width;
+        mOutputHeight = height;
+        for (int i = 0; i < mFilters.size(); i++) {
+            mFilters.get(i).onOutputSizeChanged(width, height);
+        }
+    }
+
+    /**
+     * GL上下文已重建，旧的program全部失效，直接丢弃记录而不调用destroy
+     */
+    void invalidate() {
+        mFilters.clear();
+    }
+
+    /**
+     * 销毁所有缓存的滤镜
+     */
+    void evictAll() {
+        for (int i = mFilters.size() - 1; i >= 0; i--) {
+            destroy(mFilters.remove(i));
+        }
+    }
+
+    private void use(Filter filter) {
+        if (filter == null) {
+            return;
+        }
+        int index = indexOf(filter);
+        if (index >= 0) {
+            if (index != mFilters.size() - 1) {
+                mFilters.remove(index);
+                mFilters.add(filter);
+            }
+            return;
+        }
+        int state = mPrewarmer != null ? mPrewarmer.claim(filter) : FilterPrewarmer.CLAIM_INIT;
+        if (state == FilterPrewarmer.CLAIM_WARMING) {
+            //不在GL线程中编译，等后台完成
+            return;
+        }
+        boolean prewarmed = state == FilterPrewarmer.CLAIM_READY;
+        if (!prewarmed) {
+            filter.init();
+        }
+        if (mMetrics != null) {
+            mMetrics.onFilterInit(prewarmed);
+        }
+        filter.onOutputSizeChanged(mOutputWidth, mOutputHeight);
+        mFilters.add(filter);
+    }
+
+    private void trimToSize(int maxSize, Filter left, Filter cur, Filter right) {
+        int i = 0;
+        while (mFilters.size() > maxSize && i < mFilters.size()) {
+            Filter filter = mFilters.get(i);
+            if (filter == left || filter == cur || filter == right) {
+                i++;
+                continue;
+            }
+            mFilters.remove(i);
+            destroy(filter);
+        }
+    }
+
+    private void destroy(Filter filter) {
+        filter.destroy();
+        if (mMetrics != null) {
+            mMetrics.onFilterDestroy();
+        }
+        if (mPrewarmer != null) {
+            mPrewarmer.release(filter);
+        }
+    }
+
+    private int indexOf(Filter filter) {
+        for (int i = 0; i < mFilters.size(); i++) {
+            if (mFilters.get(i) == filter) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,49 @@
+package com.mrq.library.gpufilterpager;
+
+/**
+ * GPU cost of one filter accumulated by the filter profiler,
+ * see {@link GPUImagePager#getFilterProfile()}.
+ */
+public final class FilterCost {
+
+    private final String mName;
+    private final long mDrawCount;
+    private final long mTotalNanos;
+    private final long mMaxNanos;
+
+    FilterCost(String name, long drawCount, long totalNanos, long maxNanos) {
+        mName = name;
+        mDrawCount = drawCount;
+        mTotalNanos = totalNanos;
+        mMaxNanos = maxNanos;
+    }
+
+    /**
+     * The filter's {@link Filter#toString()}.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    public long getDrawCount() {
+        return mDrawCount;
+    }
+
+    public double getTotalMillis() {
+        return mTotalNanos / 1000000.0;
+    }
+
+    public double getAverageMillis() {
+        return mDrawCount == 0 ? 0 : mTotalNanos / 1000000.0 / mDrawCount;
+    }
+
+    public double getMaxMillis() {
+        return mMaxNanos / 1000000.0;
+    }
+
+    @Override
+    public String toString() {
+        return mName + " draws=" + mDrawCount + " avgMs=" + getAverageMillis()
+                + " maxMs=" + getMaxMillis() + " totalMs=" + getTotalMillis();
+    }
+}
@@ -0,0 +1,276 @@
+package com.mrq.library.gpufilterpager;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 离屏导出：把当前图片分别用每个滤镜渲染到与图片同尺寸的FBO并读回，只能在GL线程中使用。
+ * 每帧只渲染一个滤镜，与屏幕绘制交替进行；读回交给 {@link PixelReader}，
+ * 本帧发起的读取在之后的帧完成后再复制出来，结果在主线程中按请求顺序回调。
+ * GL线程只把像素复制到direct ByteBuffer，创建Bitmap交给单个后台线程，
+ * 结束回调也经过同一线程，顺序不变。
+ */
+class FilterExporter implements PixelReader.Consumer {
+
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    //只有一个线程，按提交顺序转换、回调
+    private static final ThreadPoolExecutor sExecutor;
+
+    static {
+        sExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "GPUImagePager-exporter");
+            }
+        });
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 由渲染器绘制导出的画面
+     */
+    interface Drawer {
+
+        /**
+         * @param size 写入导出的宽高
+         * @return false 没有图片
+         */
+        boolean getExportSize(int[] size);
+
+        /**
+         * 用滤镜把当前图片绘制到已绑定的FBO，第0行为图片顶部
+         * @return false 滤镜还在后台预热，没有绘制，下一帧再试
+         */
+        boolean drawExport(Filter filter, int width, int height);
+    }
+
+    private static class Job {
+        final List<Filter> filters;
+        final boolean asBitmap;
+        final ExportCallback callback;
+        int width;
+        int height;
+        boolean started;
+        //已渲染、已读回的滤镜个数
+        int rendered;
+        int delivered;
+
+        Job(List<Filter> filters, boolean asBitmap, ExportCallback callback) {
+            this.filters = filters;
+            this.asBitmap = asBitmap;
+            this.callback = callback;
+        }
+    }
+
+    private final RenderTargetPool mPool;
+    private final Drawer mDrawer;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LinkedList<Job> mJobs = new LinkedList<>();
+    private final int[] mSize = new int[2];
+    private PixelReader mReader;
+    private RenderTargetPool.RenderTarget mTarget;
+
+    FilterExporter(RenderTargetPool pool, Drawer drawer) {
+        mPool = pool;
+        mDrawer = drawer;
+    }
+
+    /**
+     * @param asBitmap true 结果为Bitmap，false 为direct ByteBuffer
+     */
+    void add(List<Filter> filters, boolean asBitmap, ExportCallback callback) {
+        mJobs.add(new Job(new ArrayList<>(filters), asBitmap, callback));
+    }
+
+    boolean hasWork() {
+        return !mJobs.isEmpty();
+    }
+
+    /**
+     * 每帧调用一次：交出已完成的读回，再渲染下一个滤镜并发起读取。
+     * 会改变绑定的FBO和viewport，调用方负责恢复viewport
+     * @return 还有没完成的导出，需要继续绘制
+     */
+    boolean step() {
+        if (mReader == null) {
+            mReader = new PixelReader(OpenGlUtils.isGles3(), this);
+        }
+        mReader.poll();
+        Job job = nextJob();
+        if (job != null && job.rendered < job.filters.size() && !mReader.isFull()) {
+            if (mTarget == null || mTarget.width != job.width || mTarget.height != job.height) {
+                mPool.release(mTarget);
+                mTarget = mPool.acquire(job.width, job.height);
+            }
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mTarget.framebufferId);
+            GLES20.glViewport(0, 0, job.width, job.height);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            if (mDrawer.drawExport(job.filters.get(job.rendered), job.width, job.height)) {
+                job.rendered++;
+                mReader.read(job.width, job.height, job);
+            }
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        }
+        finishJobs();
+        if (mJobs.isEmpty()) {
+            release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return 第一个还有滤镜没渲染的导出
+     */
+    private Job nextJob() {
+        for (int i = 0; i < mJobs.size(); i++) {
+            Job job = mJobs.get(i);
+            if (!job.started) {
+                job.started = true;
+                if (!mDrawer.getExportSize(mSize)) {
+                    continue;
+                }
+                job.width = mSize[0];
+                job.height = mSize[1];
+            }
+            if (job.rendered < job.filters.size()) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    private void finishJobs() {
+        while (!mJobs.isEmpty()) {
+            Job job = mJobs.getFirst();
+            if (!job.started || (job.width > 0 && job.delivered < job.filters.size())) {
+                return;
+            }
+            mJobs.removeFirst();
+            final ExportCallback callback = job.callback;
+            sExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onExportFinished();
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onPixels(Object tag, ByteBuffer pixels, int width, int height) {
+        Job job = (Job) tag;
+        final int index = job.delivered++;
+        ByteBuffer copy = null;
+        if (pixels != null) {
+            //映射的PBO只在回调期间有效，GL线程只做一次内存复制
+            pixels.rewind();
+            copy = ByteBuffer.allocateDirect(pixels.remaining()).order(ByteOrder.nativeOrder());
+            copy.put(pixels);
+            copy.flip();
+        }
+        sExecutor.execute(new Convert(job, index, copy, width, height));
+    }
+
+    /**
+     * 在后台线程中把读回的像素转换成结果，再回调到主线程
+     */
+    private class Convert implements Runnable {
+        private final ExportCallback mCallback;
+        private final Filter mFilter;
+        private final boolean mAsBitmap;
+        private final int mIndex;
+        private final ByteBuffer mPixels;
+        private final int mWidth;
+        private final int mHeight;
+
+        Convert(Job job, int index, ByteBuffer pixels, int width, int height) {
+            mCallback = job.callback;
+            mFilter = job.filters.get(index);
+            mAsBitmap = job.asBitmap;
+            mIndex = index;
+            mPixels = pixels;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public void run() {
+            Bitmap bitmap = null;
+            ByteBuffer pixels = mPixels;
+            if (pixels != null && mAsBitmap) {
+                bitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+                bitmap.copyPixelsFromBuffer(pixels);
+                pixels = null;
+            }
+            final ExportResult result = new ExportResult(mFilter, mIndex, mWidth, mHeight, bitmap, pixels);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onExported(result);
+                }
+            });
+        }
+    }
+
+    /**
+     * 释放渲染目标和读回缓冲，导出全部完成或控件释放时调用
+     */
+    void release() {
+        if (mReader != null) {
+            mReader.release();
+            mReader = null;
+        }
+        mPool.release(mTarget);
+        mTarget = null;
+    }
+
+    /**
+     * 放弃所有没完成的导出，不再回调
+     */
+    void cancelAll() {
+        mJobs.clear();
+        release();
+    }
+
+    /**
+     * GL上下文已重建，FBO和PBO已失效：丢弃记录，没读回的滤镜重新渲染
+     */
+    void invalidate() {
+        if (mReader != null) {
+            mReader.invalidate();
+            mReader = null;
+        }
+        mTarget = null;
+        for (int i = 0; i < mJobs.size(); i++) {
+            Job job = mJobs.get(i);
+            job.rendered = job.delivered;
+        }
+    }
+}
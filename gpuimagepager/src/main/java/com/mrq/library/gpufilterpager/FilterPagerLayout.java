@@ -11,7 +11,6 @@ import android.view.ViewGroup;
 import android.view.ViewParent;
 import android.view.animation.Interpolator;
 import android.widget.FrameLayout;
-import android.widget.Scroller;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -22,13 +21,14 @@ import java.util.List;
 
 public abstract class FilterPagerLayout extends FrameLayout {
     private static final String TAG = "GPUImagePager";
-    private static final boolean DEBUG = true;
+    private static final boolean DEBUG = false;
 
     private static final int MIN_FLING_VELOCITY = 400; // dips      最小滑动速度
 
     private static final int MIN_DISTANCE_FOR_FLING = 25; // dips   滑动最小距离
     private static final int DEFAULT_GUTTER_SIZE = 16; // dips
     private static final int MAX_SETTLE_DURATION = 600; // ms       最大滑动持续时间
+    private static final int DEFAULT_PREWARM_LIMIT = 2; //          当前页左右各预热几个滤镜
     private int mCurItem;
     private int mNextItem = -1;
     protected List<Filter> mItems = new ArrayList<>();
@@ -36,8 +36,18 @@ public abstract class FilterPagerLayout extends FrameLayout {
 
     private boolean mPopulatePending;
 
-    private Scroller mScroller;
+    private int mPrewarmLimit = DEFAULT_PREWARM_LIMIT;
+    private int mPrewarmItem = -1;
+
+    private SettleScroller mScroller;
     private boolean mIsScrollStarted;
+    private FrameClock mFrameClock;
+    private boolean mSettleFramePosted;
+
+    //松手后的滑动动画交给渲染线程计算
+    private boolean mRenderThreadSettle;
+    private boolean mRenderSettling;
+    private int mRenderSettleToken;
 
     private static final Interpolator sInterpolator = new Interpolator() {
         public float getInterpolation(float t) {
@@ -78,6 +88,15 @@ public abstract class FilterPagerLayout extends FrameLayout {
     public static final int SCROLL_STATE_SETTLING = 2;
     private int mScrollState = SCROLL_STATE_IDLE;
 
+    //每次垂直同步推进一次滑动动画，动画结束后不再注册
+    private final FrameClock.FrameCallback mSettleFrameCallback = new FrameClock.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeMillis) {
+            mSettleFramePosted = false;
+            computeScroll(frameTimeMillis);
+        }
+    };
+
     private final Runnable mEndScrollRunnable = new Runnable() {
         public void run() {
             setScrollState(SCROLL_STATE_IDLE);
@@ -101,7 +120,23 @@ public abstract class FilterPagerLayout extends FrameLayout {
         mCloseEnough = (int) (CLOSE_ENOUGH * density);
         mDefaultGutterSize = (int) (DEFAULT_GUTTER_SIZE * density);
 
-        mScroller = new Scroller(context, sInterpolator);
+        mFrameClock = new SystemFrameClock();
+        mScroller = new SettleScroller(sInterpolator, mFrameClock);
+    }
+
+    /**
+     * 替换滑动动画使用的时钟，默认跟随屏幕垂直同步
+     */
+    public void setFrameClock(FrameClock clock) {
+        if (mSettleFramePosted) {
+            mFrameClock.removeFrameCallback(mSettleFrameCallback);
+            mSettleFramePosted = false;
+        }
+        mFrameClock = clock != null ? clock : new SystemFrameClock();
+        mScroller.setClock(mFrameClock);
+        if (!mScroller.isFinished()) {
+            postSettleFrame();
+        }
     }
 
     protected abstract void setFilter(Filter left, Filter cur, Filter right);
@@ -112,11 +147,26 @@ public abstract class FilterPagerLayout extends FrameLayout {
 
     protected abstract void onFirstLayout();
 
+    /**
+     * 滑动状态变化，默认不处理
+     * @param newState {@link #SCROLL_STATE_IDLE} {@link #SCROLL_STATE_DRAGGING} {@link #SCROLL_STATE_SETTLING}
+     */
+    protected void onScrollStateChanged(int newState) {
+    }
+
+    /**
+     * 预热即将显示的滤镜，默认不处理
+     * @param filters 按离当前页由近到远排列的滤镜
+     */
+    protected void prewarmFilters(List<Filter> filters) {
+    }
+
     public void setFilterList(List<Filter> filterList) {
         mItems.clear();
         for (int i = 0; i < filterList.size(); i++) {
             mItems.add(filterList.get(i));
         }
+        mPrewarmItem = -1;
         populate();
         if (getClientWidth() == 0) {
             onFirstLayout();
@@ -125,6 +175,39 @@ public abstract class FilterPagerLayout extends FrameLayout {
         }
     }
 
+    /**
+     * 设置当前页左右各预热几个滤镜，0为只预热当前页
+     */
+    public void setPrewarmLimit(int limit) {
+        if (limit < 0) {
+            limit = 0;
+        }
+        if (limit != mPrewarmLimit) {
+            mPrewarmLimit = limit;
+            mPrewarmItem = -1;
+            populate();
+        }
+    }
+
+    public int getPrewarmLimit() {
+        return mPrewarmLimit;
+    }
+
+    /**
+     * 松手或 {@link #setCurrentItem(int, boolean)} 之后的滑动动画是否由渲染线程按帧时间计算，
+     * 开启后UI线程卡顿不会影响动画，动画结束时才回到UI线程
+     */
+    public void setRenderThreadSettle(boolean enabled) {
+        if (!enabled) {
+            stopRenderSettle();
+        }
+        mRenderThreadSettle = enabled;
+    }
+
+    public boolean isRenderThreadSettle() {
+        return mRenderThreadSettle;
+    }
+
     public void setCurrentItem(int item) {
         setCurrentItem(item, false);
     }
@@ -176,6 +259,7 @@ public abstract class FilterPagerLayout extends FrameLayout {
         int sx;
         if (!mScroller.isFinished()) {
             //如果没有滑动结束 正在滑动中就返回当前滑动位置、如果还没开始滑动则返回开始滑动位置
+            stopRenderSettle();
             sx = mIsScrollStarted ? mScroller.getCurrX() : mScroller.getStartX();
             mScroller.abortAnimation();
         } else {
@@ -203,11 +287,70 @@ public abstract class FilterPagerLayout extends FrameLayout {
         // Reset the "scroll started" flag. It will be flipped to true in all places
         // where we call computeScrollOffset().
         mIsScrollStarted = false;
-        mScroller.startScroll(sx, 0, dx, 0, duration);
+        mScroller.startScroll(sx, dx, duration);
+        if (mRenderThreadSettle) {
+            //setCurrentItem已经切换了当前页，渲染线程的动画要按新的当前页计算
+            setFilterWindow();
+            final int token = ++mRenderSettleToken;
+            mRenderSettling = startRenderSettle(mItems.get(mCurItem), mCurrentItemOffsetPixel,
+                    getClientWidth(), mScroller.snapshot(), new Runnable() {
+                        @Override
+                        public void run() {
+                            onRenderSettleFinished(token);
+                        }
+                    });
+            if (mRenderSettling) {
+                return;
+            }
+        }
         computeScroll();
 //        requestRender();
     }
 
+    /**
+     * 由渲染线程执行滑动动画
+     * @param cur 动画过程中的当前滤镜，滤镜改变时动画停止
+     * @param curOffsetPixel 当前页的偏移
+     * @param width 页宽
+     * @param settle 滑动动画
+     * @param onFinished 动画结束后在主线程执行
+     * @return false 不支持，仍由UI线程执行
+     */
+    boolean startRenderSettle(Filter cur, float curOffsetPixel, int width,
+                              SettleScroller settle, Runnable onFinished) {
+        return false;
+    }
+
+    /**
+     * 停止渲染线程的滑动动画
+     */
+    void cancelRenderSettle() {
+    }
+
+    //渲染线程的动画被打断，UI线程同步到动画的当前位置
+    private void stopRenderSettle() {
+        if (mRenderSettling) {
+            mRenderSettling = false;
+            cancelRenderSettle();
+            mScroller.computeScrollOffset();
+            mIsScrollStarted = true;
+            scrollTo(mScroller.getCurrX());
+        }
+    }
+
+    private void onRenderSettleFinished(int token) {
+        if (!mRenderSettling || token != mRenderSettleToken) {
+            return;
+        }
+        mRenderSettling = false;
+        mScroller.abortAnimation();
+        int x = mScroller.getFinalX();
+        if (x != getVirtualScrollX()) {
+            scrollTo(x);
+        }
+        computeScroll();
+    }
+
     //计算动画持续时间
     private int calculateDuration(int velocity, int dx, float distance) {
         int duration;
@@ -233,6 +376,21 @@ public abstract class FilterPagerLayout extends FrameLayout {
     }
 
     protected void scrollTo(int scrollX) {
+        PagerTracer tracer = PagerTrace.begin(PagerTrace.SCROLL_TO);
+        setFilterWindow();
+
+        mVirtualScrollX = scrollX;
+        boolean dragToLeft = isDragToLeft(scrollX, mCurrentItemOffsetPixel);
+        Filter cur = mItems.get(mCurItem);
+        int scrollX1 = getPageScrollX(scrollX, mCurrentItemOffsetPixel, getClientWidth());
+        if (DEBUG) Log.d(TAG, "cur:" + mCurItem + "drag to left " + dragToLeft + "  scroll " + scrollX1);
+        setScrollX(cur, scrollX1, dragToLeft);
+        requestLayoutGpuImageView();
+        PagerTrace.end(tracer);
+    }
+
+    //把当前页和左右相邻页的滤镜交给渲染器
+    private void setFilterWindow() {
         Filter curItem = mItems.get(mCurItem);
         if (curItem != null) {
             Filter left = null;
@@ -255,20 +413,29 @@ public abstract class FilterPagerLayout extends FrameLayout {
                     (right != null ? right.toString() : "null"));
             setFilter(left, cur, right);
         }
+    }
 
-        mVirtualScrollX = scrollX;
-        boolean dragToLeft = scrollX - mCurrentItemOffsetPixel < 0;
-        Filter cur = mItems.get(mCurItem);
-        if (dragToLeft) {
-            int scrollX1 = (int) (mCurrentItemOffsetPixel - scrollX);
-            if (DEBUG) Log.d(TAG, "cur:" + mCurItem + "drag to left " + dragToLeft + "  scroll " + scrollX1);
-            setScrollX(cur, scrollX1, true);
-        } else {
-            int scrollX1 = (int) (mCurrentItemOffsetPixel + getClientWidth() - scrollX);
-            if (DEBUG) Log.d(TAG, "cur:" + mCurItem + "drag to left " + dragToLeft + "  scroll " + scrollX1);
-            setScrollX(cur, scrollX1, false);
+    /**
+     * @param scrollX 整体滑动位置
+     * @param curOffsetPixel 当前页的偏移
+     * @return true 当前页与左侧页拖拽
+     */
+    static boolean isDragToLeft(int scrollX, float curOffsetPixel) {
+        return scrollX - curOffsetPixel < 0;
+    }
+
+    /**
+     * 整体滑动位置转换为渲染器使用的分割位置
+     * @param scrollX 整体滑动位置
+     * @param curOffsetPixel 当前页的偏移
+     * @param width 页宽
+     * @return 分割线距离控件左侧的像素
+     */
+    static int getPageScrollX(int scrollX, float curOffsetPixel, int width) {
+        if (isDragToLeft(scrollX, curOffsetPixel)) {
+            return (int) (curOffsetPixel - scrollX);
         }
-        requestLayoutGpuImageView();
+        return (int) (curOffsetPixel + width - scrollX);
     }
 
     private void setScrollState(int newState) {
@@ -277,6 +444,11 @@ public abstract class FilterPagerLayout extends FrameLayout {
         }
 
         mScrollState = newState;
+        onScrollStateChanged(newState);
+    }
+
+    public int getScrollState() {
+        return mScrollState;
     }
 
     private void populate() {
@@ -298,6 +470,7 @@ public abstract class FilterPagerLayout extends FrameLayout {
         if (curItem != null) {
             if (DEBUG) Log.d(TAG, "populate " + mCurItem);
             mCurrentItemOffsetPixel = mCurItem * getClientWidth();
+            prewarm();
 
 //            Filter left = null;
 //            Filter cur = mItems.get(mCurItem);
@@ -322,6 +495,24 @@ public abstract class FilterPagerLayout extends FrameLayout {
     }
 
 
+    private void prewarm() {
+        if (mPrewarmItem == mCurItem) {
+            return;
+        }
+        mPrewarmItem = mCurItem;
+        List<Filter> filters = new ArrayList<>(mPrewarmLimit * 2 + 1);
+        filters.add(mItems.get(mCurItem));
+        for (int i = 1; i <= mPrewarmLimit; i++) {
+            if (mCurItem + i < mItems.size()) {
+                filters.add(mItems.get(mCurItem + i));
+            }
+            if (mCurItem - i >= 0) {
+                filters.add(mItems.get(mCurItem - i));
+            }
+        }
+        prewarmFilters(filters);
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
@@ -332,8 +523,22 @@ public abstract class FilterPagerLayout extends FrameLayout {
 
     @Override
     public void computeScroll() {
+        computeScroll(mFrameClock.uptimeMillis());
+    }
+
+    private void computeScroll(long frameTimeMillis) {
+        PagerTracer tracer = PagerTrace.begin(PagerTrace.COMPUTE_SCROLL);
+        stepScroll(frameTimeMillis);
+        PagerTrace.end(tracer);
+    }
+
+    private void stepScroll(long frameTimeMillis) {
+        if (mRenderSettling) {
+            //渲染线程正在执行动画
+            return;
+        }
         mIsScrollStarted = true;
-        if (!mScroller.isFinished() && mScroller.computeScrollOffset()) {
+        if (!mScroller.isFinished() && mScroller.computeScrollOffset(frameTimeMillis)) {
             int oldX = getVirtualScrollX();
             int x = mScroller.getCurrX();
 
@@ -343,12 +548,7 @@ public abstract class FilterPagerLayout extends FrameLayout {
             }
 
             // Keep on drawing until the animation has finished.
-            postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    computeScroll();
-                }
-            }, 1000 / 30);
+            postSettleFrame();
             return;
         }
 
@@ -361,12 +561,23 @@ public abstract class FilterPagerLayout extends FrameLayout {
         completeScroll(true);
     }
 
+    private void postSettleFrame() {
+        if (!mSettleFramePosted) {
+            mSettleFramePosted = true;
+            mFrameClock.postFrameCallback(mSettleFrameCallback);
+        }
+    }
+
     //滑动结束
     private void completeScroll(boolean postEvents) {
         boolean needPopulate = mScrollState == SCROLL_STATE_SETTLING;
         if (needPopulate) {
             boolean wasScrolling = !mScroller.isFinished();
             if (wasScrolling) {
+                if (mRenderSettling) {
+                    mRenderSettling = false;
+                    cancelRenderSettle();
+                }
                 mScroller.abortAnimation();
                 int oldX = getVirtualScrollX();
                 int x = mScroller.getCurrX();
@@ -495,6 +706,7 @@ public abstract class FilterPagerLayout extends FrameLayout {
                 if (mScrollState == SCROLL_STATE_SETTLING
                         && Math.abs(mScroller.getFinalX() - mScroller.getCurrX()) > mCloseEnough) {
                     // Let the user 'catch' the pager as it animates.
+                    stopRenderSettle();
                     mScroller.abortAnimation();
                     if (mNextItem != -1){
                         mCurItem = mNextItem;
@@ -555,6 +767,7 @@ public abstract class FilterPagerLayout extends FrameLayout {
 
         switch (action & MotionEvent.ACTION_MASK) {
             case MotionEvent.ACTION_DOWN: {
+                stopRenderSettle();
                 mScroller.abortAnimation();
                 if (DEBUG) Log.v(TAG, "scrolling abort");
                 mPopulatePending = false;
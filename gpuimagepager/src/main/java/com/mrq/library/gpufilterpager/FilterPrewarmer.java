@@ -0,0 +1,331 @@
+package com.mrq.library.gpufilterpager;
+
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+/**
+ * 滤镜预热：在后台线程的共享EGL上下文中提前初始化（编译、链接shader）即将显示的滤镜。
+ * 同时作为GLSurfaceView的EGLContextFactory，在创建渲染上下文时创建与之共享的后台上下文。
+ * <p>
+ * 滤镜的归属：{@link #claim(Filter)} 之后滤镜归GL线程的 {@link FilterCache} 管理，
+ * 后台线程不会再碰它，直到 {@link #release(Filter)}。
+ * <p>
+ * 就绪状态由 {@link #claim(Filter)} 报告，GL线程不会等待：等待预热或正在预热的滤镜返回
+ * {@link #CLAIM_WARMING}，渲染器先用默认滤镜绘制，预热完成后通过 {@link #setOnWarmedListener}
+ * 请求重绘再换上。不在预热列表中、后台初始化失败或后台上下文不可用时由GL线程自己初始化。
+ */
+class FilterPrewarmer implements GLSurfaceView.EGLContextFactory {
+    private static final String TAG = "GPUImagePager";
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+
+    //已在后台初始化完成，直接使用
+    static final int CLAIM_READY = 0;
+    //需要GL线程自己初始化
+    static final int CLAIM_INIT = 1;
+    //还在等待或正在后台初始化，暂时不能使用
+    static final int CLAIM_WARMING = 2;
+
+    private final Object mLock = new Object();
+    //需要预热的滤镜，按优先级排序
+    private final List<Filter> mPending = new ArrayList<>();
+    //后台线程已初始化、还没交给GL线程的滤镜
+    private final List<Filter> mReady = new ArrayList<>();
+    //GL线程正在使用的滤镜
+    private final List<Filter> mOwned = new ArrayList<>();
+    //后台线程正在初始化或销毁的滤镜
+    private Filter mWorking;
+    //后台初始化失败的滤镜，不再重试
+    private final List<Filter> mFailed = new ArrayList<>();
+    //后台线程已可以初始化滤镜
+    private boolean mWarming;
+    private volatile Runnable mOnWarmedListener;
+
+    private WarmThread mThread;
+    private final List<SharedContextClient> mClients = new ArrayList<>();
+
+    /**
+     * 需要与渲染上下文共享资源的后台线程，在渲染上下文创建、销毁时回调，都在GL线程中调用
+     */
+    interface SharedContextClient {
+
+        /**
+         * @param context 新的渲染上下文，用它创建共享上下文
+         */
+        void onContextCreated(EGL10 egl, EGLDisplay display, EGLConfig config, EGLContext context);
+
+        void onContextDestroyed();
+    }
+
+    /**
+     * 在setEGLContextFactory之前调用
+     */
+    void addSharedContextClient(SharedContextClient client) {
+        mClients.add(client);
+    }
+
+    @Override
+    public EGLContext createContext(EGL10 egl, EGLDisplay display, EGLConfig config) {
+        int[] attribList = {EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE};
+        EGLContext context = egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT, attribList);
+        if (context == null || context == EGL10.EGL_NO_CONTEXT) {
+            return context;
+        }
+        synchronized (mLock) {
+            //新的上下文，之前初始化的滤镜全部失效
+            mReady.clear();
+            mOwned.clear();
+            mFailed.clear();
+        }
+        EGLContext shared = egl.eglCreateContext(display, config, context, attribList);
+        if (shared == null || shared == EGL10.EGL_NO_CONTEXT) {
+            Log.w(TAG, "create shared context failed, filters will be initialized on GL thread");
+        } else {
+            mThread = new WarmThread(egl, display, config, shared);
+            mThread.start();
+        }
+        for (int i = 0; i < mClients.size(); i++) {
+            mClients.get(i).onContextCreated(egl, display, config, context);
+        }
+        return context;
+    }
+
+    @Override
+    public void destroyContext(EGL10 egl, EGLDisplay display, EGLContext context) {
+        if (mThread != null) {
+            mThread.quit();
+            mThread = null;
+        }
+        for (int i = 0; i < mClients.size(); i++) {
+            mClients.get(i).onContextDestroyed();
+        }
+        egl.eglDestroyContext(display, context);
+    }
+
+    /**
+     * 设置需要预热的滤镜，不在列表中的已预热滤镜会被销毁
+     * @param filters 按优先级从高到低排列的滤镜
+     */
+    void prewarm(List<Filter> filters) {
+        synchronized (mLock) {
+            mPending.clear();
+            for (int i = 0; i < filters.size(); i++) {
+                Filter filter = filters.get(i);
+                if (filter != null && !contains(mPending, filter)) {
+                    mPending.add(filter);
+                }
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * 后台线程完成（或放弃）一个滤镜的初始化时在后台线程中回调，之前返回
+     * {@link #CLAIM_WARMING} 的滤镜可以再次claim
+     */
+    void setOnWarmedListener(Runnable listener) {
+        mOnWarmedListener = listener;
+    }
+
+    /**
+     * GL线程开始使用该滤镜，只能在GL线程调用，不会阻塞
+     * @return {@link #CLAIM_READY} 已在后台初始化，归GL线程所有；
+     * {@link #CLAIM_INIT} 归GL线程所有，需要自己初始化；
+     * {@link #CLAIM_WARMING} 还在后台预热，没有交给GL线程，稍后再claim
+     */
+    int claim(Filter filter) {
+        synchronized (mLock) {
+            if (remove(mReady, filter)) {
+                mOwned.add(filter);
+                return CLAIM_READY;
+            }
+            if (mWorking == filter || (mWarming && contains(mPending, filter)
+                    && !contains(mOwned, filter) && !contains(mFailed, filter))) {
+                return CLAIM_WARMING;
+            }
+            if (!contains(mOwned, filter)) {
+                mOwned.add(filter);
+            }
+            return CLAIM_INIT;
+        }
+    }
+
+    /**
+     * GL线程已销毁该滤镜，之后可以再次预热
+     */
+    void release(Filter filter) {
+        synchronized (mLock) {
+            remove(mOwned, filter);
+            mLock.notifyAll();
+        }
+    }
+
+    private static boolean contains(List<Filter> list, Filter filter) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == filter) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean remove(List<Filter> list, Filter filter) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == filter) {
+                list.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class WarmThread extends Thread {
+        private final EGL10 mEgl;
+        private final EGLDisplay mDisplay;
+        private final EGLConfig mConfig;
+        private final EGLContext mContext;
+        private boolean mQuit;
+
+        WarmThread(EGL10 egl, EGLDisplay display, EGLConfig config, EGLContext context) {
+            super("FilterPrewarmer");
+            mEgl = egl;
+            mDisplay = display;
+            mConfig = config;
+            mContext = context;
+        }
+
+        void quit() {
+            synchronized (mLock) {
+                mQuit = true;
+                mLock.notifyAll();
+            }
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            int[] surfaceAttribs = {EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE};
+            EGLSurface surface = mEgl.eglCreatePbufferSurface(mDisplay, mConfig, surfaceAttribs);
+            if (surface == null || surface == EGL10.EGL_NO_SURFACE
+                    || !mEgl.eglMakeCurrent(mDisplay, surface, surface, mContext)) {
+                Log.w(TAG, "prewarm context unavailable, error " + mEgl.eglGetError());
+                if (surface != null && surface != EGL10.EGL_NO_SURFACE) {
+                    mEgl.eglDestroySurface(mDisplay, surface);
+                }
+                mEgl.eglDestroyContext(mDisplay, mContext);
+                return;
+            }
+            synchronized (mLock) {
+                mWarming = true;
+            }
+            try {
+                loop();
+            } finally {
+                synchronized (mLock) {
+                    mWarming = false;
+                }
+                //等待预热的滤镜改由GL线程初始化
+                notifyWarmed();
+                mEgl.eglMakeCurrent(mDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE,
+                        EGL10.EGL_NO_CONTEXT);
+                mEgl.eglDestroySurface(mDisplay, surface);
+                mEgl.eglDestroyContext(mDisplay, mContext);
+            }
+        }
+
+        private void loop() {
+            while (true) {
+                Filter filter = null;
+                boolean stale;
+                synchronized (mLock) {
+                    while (!mQuit) {
+                        filter = nextStale();
+                        if (filter == null) {
+                            filter = nextPending();
+                        }
+                        if (filter != null) {
+                            break;
+                        }
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (mQuit || filter == null) {
+                        return;
+                    }
+                    stale = remove(mReady, filter);
+                    mWorking = filter;
+                }
+                boolean initialized = false;
+                try {
+                    if (stale) {
+                        filter.destroy();
+                    } else {
+                        filter.init();
+                        //确保program在共享上下文中可用
+                        GLES20.glFinish();
+                        initialized = true;
+                    }
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "prewarm " + filter + " failed", e);
+                } finally {
+                    synchronized (mLock) {
+                        mWorking = null;
+                        if (initialized) {
+                            mReady.add(filter);
+                        } else if (!stale) {
+                            mFailed.add(filter);
+                        }
+                        mLock.notifyAll();
+                    }
+                }
+                if (!stale) {
+                    notifyWarmed();
+                }
+            }
+        }
+
+        private void notifyWarmed() {
+            Runnable listener = mOnWarmedListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+
+        //已预热但不再需要的滤镜
+        private Filter nextStale() {
+            for (int i = 0; i < mReady.size(); i++) {
+                Filter filter = mReady.get(i);
+                if (!contains(mPending, filter)) {
+                    return filter;
+                }
+            }
+            return null;
+        }
+
+        private Filter nextPending() {
+            for (int i = 0; i < mPending.size(); i++) {
+                Filter filter = mPending.get(i);
+                if (!contains(mReady, filter) && !contains(mOwned, filter) && !contains(mFailed, filter)) {
+                    return filter;
+                }
+            }
+            return null;
+        }
+    }
+}
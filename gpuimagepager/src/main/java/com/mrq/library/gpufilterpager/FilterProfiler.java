@@ -0,0 +1,347 @@
+package com.mrq.library.gpufilterpager;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 统计每个滤镜绘制的GPU耗时，按 {@link Filter#toString()} 累计。
+ * 支持GL_EXT_disjoint_timer_query时用异步的计时查询，结果在之后几帧取回；
+ * 否则每次绘制前后等待GPU执行完成，用CPU时间近似，会打断CPU和GPU的并行，只适合调试。
+ * 除 {@link #getReport()} {@link #reset()} 外只能在GL线程中调用。
+ */
+class FilterProfiler {
+
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+    private static final int MAX_PENDING = 64;
+
+    /**
+     * 计时方式，可替换为假的实现
+     */
+    interface TimingSource {
+
+        /**
+         * 开始计时
+         * @return 计时句柄，负数表示无法计时
+         */
+        int begin();
+
+        void end(int handle);
+
+        /**
+         * @return 耗时（纳秒），结果还不可用时返回负数
+         */
+        long getResult(int handle);
+
+        /**
+         * 放弃还没取回结果的计时
+         */
+        void discard(int handle);
+
+        /**
+         * @return 上次调用后是否发生了使计时结果无效的事件，如GPU降频
+         */
+        boolean isDisjoint();
+
+        /**
+         * 删除GL对象
+         */
+        void release();
+    }
+
+    private static class Stats {
+        long drawCount;
+        long totalNanos;
+        long maxNanos;
+    }
+
+    private TimingSource mSource;
+    private final int[] mPendingHandles = new int[MAX_PENDING];
+    private final String[] mPendingNames = new String[MAX_PENDING];
+    private int mPendingCount;
+    private int mCurrentHandle = -1;
+    private String mCurrentName;
+
+    private final Map<String, Stats> mStats = new HashMap<>();
+
+    /**
+     * 根据当前GL上下文选择计时方式，只能在GL线程中调用
+     */
+    static TimingSource createTimingSource() {
+        TimingSource source = createTimerQuerySource();
+        return source != null ? source : new FenceTimingSource(OpenGlUtils.isGles3());
+    }
+
+    /**
+     * 不会等待GPU的异步计时，只能在GL线程中调用
+     * @return 不支持GL_EXT_disjoint_timer_query时返回null
+     */
+    static TimingSource createTimerQuerySource() {
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        if (OpenGlUtils.isGles3() && extensions != null && extensions.contains("GL_EXT_disjoint_timer_query")) {
+            return new TimerQuerySource();
+        }
+        return null;
+    }
+
+    void setTimingSource(TimingSource source) {
+        release();
+        mSource = source;
+    }
+
+    boolean hasTimingSource() {
+        return mSource != null;
+    }
+
+    void begin(Filter filter) {
+        if (mSource == null || mPendingCount == MAX_PENDING) {
+            return;
+        }
+        mCurrentHandle = mSource.begin();
+        mCurrentName = filter.toString();
+    }
+
+    void end() {
+        if (mCurrentHandle < 0) {
+            return;
+        }
+        mSource.end(mCurrentHandle);
+        mPendingHandles[mPendingCount] = mCurrentHandle;
+        mPendingNames[mPendingCount] = mCurrentName;
+        mPendingCount++;
+        mCurrentHandle = -1;
+        mCurrentName = null;
+    }
+
+    /**
+     * 取回已完成的计时结果，每帧结束时调用
+     */
+    void collect() {
+        if (mSource == null || mPendingCount == 0) {
+            return;
+        }
+        if (mSource.isDisjoint()) {
+            discardPending();
+            return;
+        }
+        int remaining = 0;
+        for (int i = 0; i < mPendingCount; i++) {
+            long nanos = mSource.getResult(mPendingHandles[i]);
+            if (nanos >= 0) {
+                record(mPendingNames[i], nanos);
+            } else {
+                mPendingHandles[remaining] = mPendingHandles[i];
+                mPendingNames[remaining] = mPendingNames[i];
+                remaining++;
+            }
+        }
+        for (int i = remaining; i < mPendingCount; i++) {
+            mPendingNames[i] = null;
+        }
+        mPendingCount = remaining;
+    }
+
+    /**
+     * 停止计时并删除GL对象，已统计的数据保留
+     */
+    void release() {
+        if (mSource != null) {
+            discardPending();
+            mSource.release();
+            mSource = null;
+        }
+    }
+
+    /**
+     * GL上下文已重建，计时对象全部失效，直接丢弃
+     */
+    void invalidate() {
+        for (int i = 0; i < mPendingCount; i++) {
+            mPendingNames[i] = null;
+        }
+        mPendingCount = 0;
+        mCurrentHandle = -1;
+        mSource = null;
+    }
+
+    /**
+     * @return 按平均耗时从高到低排列的滤镜，可在任意线程调用
+     */
+    List<FilterCost> getReport() {
+        List<FilterCost> report;
+        synchronized (mStats) {
+            report = new ArrayList<>(mStats.size());
+            for (Map.Entry<String, Stats> entry : mStats.entrySet()) {
+                Stats stats = entry.getValue();
+                report.add(new FilterCost(entry.getKey(), stats.drawCount, stats.totalNanos, stats.maxNanos));
+            }
+        }
+        Collections.sort(report, new Comparator<FilterCost>() {
+            @Override
+            public int compare(FilterCost lhs, FilterCost rhs) {
+                return Double.compare(rhs.getAverageMillis(), lhs.getAverageMillis());
+            }
+        });
+        return report;
+    }
+
+    void reset() {
+        synchronized (mStats) {
+            mStats.clear();
+        }
+    }
+
+    private void record(String name, long nanos) {
+        synchronized (mStats) {
+            Stats stats = mStats.get(name);
+            if (stats == null) {
+                stats = new Stats();
+                mStats.put(name, stats);
+            }
+            stats.drawCount++;
+            stats.totalNanos += nanos;
+            stats.maxNanos = Math.max(stats.maxNanos, nanos);
+        }
+    }
+
+    private void discardPending() {
+        for (int i = 0; i < mPendingCount; i++) {
+            mSource.discard(mPendingHandles[i]);
+            mPendingNames[i] = null;
+        }
+        mPendingCount = 0;
+    }
+
+    /**
+     * GL_EXT_disjoint_timer_query异步计时，查询对象循环使用
+     */
+    private static class TimerQuerySource implements TimingSource {
+        private final int[] mFree = new int[MAX_PENDING];
+        private int mFreeCount;
+        private final List<Integer> mAll = new ArrayList<>();
+        private final int[] mResult = new int[1];
+
+        @Override
+        public int begin() {
+            int query;
+            if (mFreeCount > 0) {
+                query = mFree[--mFreeCount];
+            } else {
+                GLES30.glGenQueries(1, mResult, 0);
+                query = mResult[0];
+                mAll.add(query);
+            }
+            GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, query);
+            return query;
+        }
+
+        @Override
+        public void end(int handle) {
+            GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+        }
+
+        @Override
+        public long getResult(int handle) {
+            GLES30.glGetQueryObjectuiv(handle, GLES30.GL_QUERY_RESULT_AVAILABLE, mResult, 0);
+            if (mResult[0] == 0) {
+                return -1;
+            }
+            GLES30.glGetQueryObjectuiv(handle, GLES30.GL_QUERY_RESULT, mResult, 0);
+            discard(handle);
+            return mResult[0] & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public void discard(int handle) {
+            if (mFreeCount < mFree.length) {
+                mFree[mFreeCount++] = handle;
+            }
+        }
+
+        @Override
+        public boolean isDisjoint() {
+            GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, mResult, 0);
+            return mResult[0] != 0;
+        }
+
+        @Override
+        public void release() {
+            int[] queries = new int[mAll.size()];
+            for (int i = 0; i < queries.length; i++) {
+                queries[i] = mAll.get(i);
+            }
+            if (queries.length > 0) {
+                GLES30.glDeleteQueries(queries.length, queries, 0);
+            }
+            mAll.clear();
+            mFreeCount = 0;
+        }
+    }
+
+    /**
+     * 等待GPU执行完成后记录CPU时间，ES3用fence等待，ES2用glFinish
+     */
+    private static class FenceTimingSource implements TimingSource {
+        private static final long WAIT_TIMEOUT_NANOS = 100 * 1000000L;
+
+        private final boolean mUseSync;
+        //结果立即可用，按句柄保存到帧结束时取回
+        private final long[] mResults = new long[MAX_PENDING];
+        private int mNextHandle;
+        private long mStartNanos;
+
+        FenceTimingSource(boolean useSync) {
+            mUseSync = useSync;
+        }
+
+        @Override
+        public int begin() {
+            waitForGpu();
+            mStartNanos = System.nanoTime();
+            int handle = mNextHandle;
+            mNextHandle = (mNextHandle + 1) % MAX_PENDING;
+            return handle;
+        }
+
+        @Override
+        public void end(int handle) {
+            waitForGpu();
+            mResults[handle] = System.nanoTime() - mStartNanos;
+        }
+
+        @Override
+        public long getResult(int handle) {
+            return mResults[handle];
+        }
+
+        @Override
+        public void discard(int handle) {
+        }
+
+        @Override
+        public boolean isDisjoint() {
+            return false;
+        }
+
+        @Override
+        public void release() {
+        }
+
+        private void waitForGpu() {
+            if (mUseSync) {
+                long sync = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+                GLES30.glClientWaitSync(sync, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT_NANOS);
+                GLES30.glDeleteSync(sync);
+            } else {
+                GLES20.glFinish();
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.mrq.library.gpufilterpager;
+
+/**
+ * 动画时钟，提供当前时间并在下一帧回调。
+ * 默认实现跟随屏幕垂直同步，测试时可替换为手动推进的时钟。
+ */
+public interface FrameClock {
+
+    /**
+     * 帧回调
+     */
+    interface FrameCallback {
+
+        /**
+         * @param frameTimeMillis 本帧的时间，与 {@link #uptimeMillis()} 同一时间基准
+         */
+        void doFrame(long frameTimeMillis);
+    }
+
+    /**
+     * @return 当前时间，毫秒
+     */
+    long uptimeMillis();
+
+    /**
+     * 在下一帧执行一次回调
+     */
+    void postFrameCallback(FrameCallback callback);
+
+    /**
+     * 移除还没有执行的回调
+     */
+    void removeFrameCallback(FrameCallback callback);
+}
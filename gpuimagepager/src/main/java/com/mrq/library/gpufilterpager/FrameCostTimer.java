@@ -0,0 +1,149 @@
+package com.mrq.library.gpufilterpager;
+
+import android.opengl.GLES30;
+
+/**
+ * 测量滑动时每帧分屏绘制的实际开销：onDrawFrame的CPU时间加GPU执行时间，只能在GL线程中使用。
+ * 支持GL_EXT_disjoint_timer_query时用计时查询取回GPU耗时，结果在之后几帧可用；
+ * 否则ES3在绘制后插入fence，下一次绘制前fence还没完成说明GPU跟不上，按这段时间计入；
+ * ES2只计CPU时间。都不会等待GPU。
+ */
+class FrameCostTimer {
+
+    private static final int MAX_PENDING = 4;
+
+    private final FilterProfiler.TimingSource mQueries;
+    private final boolean mUseFence;
+
+    //等待GPU结果的帧：计时句柄和CPU时间
+    private final int[] mHandles = new int[MAX_PENDING];
+    private final long[] mCpuNanos = new long[MAX_PENDING];
+    private int mPendingCount;
+    private int mCurrentHandle = -1;
+
+    private long mFence;
+    private long mFenceNanos;
+    //没有GPU结果时上一帧的CPU时间，-1为没有
+    private long mLastCpuNanos = -1;
+
+    /**
+     * @param queries 异步计时，为null时不使用
+     * @param useFence 没有异步计时时是否用fence判断GPU是否跟得上，需要ES3
+     */
+    FrameCostTimer(FilterProfiler.TimingSource queries, boolean useFence) {
+        mQueries = queries;
+        mUseFence = queries == null && useFence;
+    }
+
+    /**
+     * 按当前上下文选择计时方式，只能在GL线程中调用
+     */
+    static FrameCostTimer create() {
+        return new FrameCostTimer(FilterProfiler.createTimerQuerySource(), OpenGlUtils.isGles3());
+    }
+
+    /**
+     * 分屏绘制之前调用
+     */
+    void begin() {
+        if (mQueries != null && mPendingCount < MAX_PENDING) {
+            mCurrentHandle = mQueries.begin();
+        }
+    }
+
+    /**
+     * 分屏绘制之后调用
+     * @param cpuNanos 本帧到目前为止的CPU时间
+     */
+    void end(long cpuNanos) {
+        if (mQueries != null) {
+            if (mCurrentHandle < 0) {
+                return;
+            }
+            mQueries.end(mCurrentHandle);
+            mHandles[mPendingCount] = mCurrentHandle;
+            mCpuNanos[mPendingCount] = cpuNanos;
+            mPendingCount++;
+            mCurrentHandle = -1;
+        } else if (mUseFence) {
+            deleteFence();
+            mFence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            mFenceNanos = System.nanoTime();
+            mLastCpuNanos = cpuNanos;
+        } else {
+            mLastCpuNanos = cpuNanos;
+        }
+    }
+
+    /**
+     * 取出最早一帧的开销，在下一次 {@link #begin()} 之前调用
+     * @return CPU时间加GPU时间，还没有结果时返回-1
+     */
+    long takeCost() {
+        if (mQueries != null) {
+            if (mPendingCount == 0) {
+                return -1;
+            }
+            if (mQueries.isDisjoint()) {
+                //GPU降频等，结果不可信
+                reset();
+                return -1;
+            }
+            long gpuNanos = mQueries.getResult(mHandles[0]);
+            if (gpuNanos < 0) {
+                return -1;
+            }
+            long cost = mCpuNanos[0] + gpuNanos;
+            mPendingCount--;
+            System.arraycopy(mHandles, 1, mHandles, 0, mPendingCount);
+            System.arraycopy(mCpuNanos, 1, mCpuNanos, 0, mPendingCount);
+            return cost;
+        }
+        long cost = mLastCpuNanos;
+        if (cost < 0) {
+            return -1;
+        }
+        mLastCpuNanos = -1;
+        if (mFence != 0) {
+            int status = GLES30.glClientWaitSync(mFence, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+            if (status == GLES30.GL_TIMEOUT_EXPIRED) {
+                //GPU至少用了从提交到现在的时间
+                cost += System.nanoTime() - mFenceNanos;
+            }
+            deleteFence();
+        }
+        return cost;
+    }
+
+    /**
+     * 停止滑动，丢弃还没取回的结果
+     */
+    void reset() {
+        if (mQueries != null) {
+            for (int i = 0; i < mPendingCount; i++) {
+                mQueries.discard(mHandles[i]);
+            }
+        }
+        mPendingCount = 0;
+        mCurrentHandle = -1;
+        mLastCpuNanos = -1;
+        deleteFence();
+    }
+
+    /**
+     * 删除GL对象
+     */
+    void release() {
+        reset();
+        if (mQueries != null) {
+            mQueries.release();
+        }
+    }
+
+    private void deleteFence() {
+        if (mFence != 0) {
+            GLES30.glDeleteSync(mFence);
+            mFence = 0;
+        }
+    }
+}
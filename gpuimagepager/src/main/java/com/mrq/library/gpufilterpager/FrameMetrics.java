@@ -0,0 +1,116 @@
+package com.mrq.library.gpufilterpager;
+
+/**
+ * Snapshot of the renderer's per-frame metrics since the last reset,
+ * see {@link GPUImagePager#getFrameMetrics(boolean)}.
+ */
+public final class FrameMetrics {
+
+    private final long mFrameCount;
+    private final long mDroppedFrames;
+    private final Histogram mFrameTime;
+    private final Histogram mDrainTime;
+    private final Histogram mDrawCalls;
+    private final Histogram mCommands;
+    private final long mCoalescedCommands;
+    private final long mFilterInits;
+    private final long mFilterPrewarmed;
+    private final long mFilterDestroys;
+
+    FrameMetrics(long frameCount, long droppedFrames, Histogram frameTime, Histogram drainTime,
+                 Histogram drawCalls, Histogram commands, long coalescedCommands,
+                 long filterInits, long filterPrewarmed, long filterDestroys) {
+        mFrameCount = frameCount;
+        mDroppedFrames = droppedFrames;
+        mFrameTime = frameTime;
+        mDrainTime = drainTime;
+        mDrawCalls = drawCalls;
+        mCommands = commands;
+        mCoalescedCommands = coalescedCommands;
+        mFilterInits = filterInits;
+        mFilterPrewarmed = filterPrewarmed;
+        mFilterDestroys = filterDestroys;
+    }
+
+    /**
+     * Number of frames drawn.
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Number of display refreshes missed. Between consecutive frames of a render-driven animation
+     * (settle or export) this is derived from the frame interval; for other frames, including
+     * touch-driven drags, only from the frame's own duration, so pauses in input are not drops.
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * CPU time spent in onDrawFrame, in microseconds.
+     */
+    public Histogram getFrameTime() {
+        return mFrameTime;
+    }
+
+    /**
+     * Time spent running the queued render commands at the start of each frame, in microseconds.
+     */
+    public Histogram getDrainTime() {
+        return mDrainTime;
+    }
+
+    /**
+     * Number of filter draw calls per frame.
+     */
+    public Histogram getDrawCalls() {
+        return mDrawCalls;
+    }
+
+    /**
+     * Number of queued render commands run per frame. Scroll positions and filter changes are
+     * coalesced to at most one each per frame, so this stays flat however fast touch events arrive.
+     */
+    public Histogram getCommandsPerFrame() {
+        return mCommands;
+    }
+
+    /**
+     * Number of scroll and filter commands that were superseded by a newer one before they ran.
+     */
+    public long getCoalescedCommands() {
+        return mCoalescedCommands;
+    }
+
+    /**
+     * Number of filters initialized on the GL thread.
+     */
+    public long getFilterInits() {
+        return mFilterInits;
+    }
+
+    /**
+     * Number of filters that were already initialized in the background when first shown.
+     */
+    public long getFilterPrewarmed() {
+        return mFilterPrewarmed;
+    }
+
+    /**
+     * Number of filters destroyed.
+     */
+    public long getFilterDestroys() {
+        return mFilterDestroys;
+    }
+
+    @Override
+    public String toString() {
+        return "frames=" + mFrameCount + " dropped=" + mDroppedFrames
+                + " frameTimeUs[" + mFrameTime + "] drainTimeUs[" + mDrainTime
+                + "] drawCalls[" + mDrawCalls + "] commands[" + mCommands
+                + "] coalesced=" + mCoalescedCommands + " inits=" + mFilterInits
+                + " prewarmed=" + mFilterPrewarmed + " destroys=" + mFilterDestroys;
+    }
+}
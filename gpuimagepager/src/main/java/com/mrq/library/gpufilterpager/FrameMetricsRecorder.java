@@ -0,0 +1,137 @@
+package com.mrq.library.gpufilterpager;
+
+/**
+ * 统计每帧的耗时、绘制次数和滤镜初始化次数。
+ * 记录方法只能在GL线程中调用，当前帧的数据在 {@link #endFrame(long)} 时一次性提交，
+ * {@link #snapshot(boolean)} 可在任意线程调用。
+ */
+class FrameMetricsRecorder {
+
+    //连续动画的两帧之间超过这个间隔说明被暂停（如切到后台），不计算掉帧
+    private static final long MAX_FRAME_GAP_NANOS = 250 * 1000000L;
+
+    //onDrawFrame耗时，100us一个桶，最大50ms
+    private final Histogram mFrameTime = new Histogram(100, 500);
+    //命令队列执行耗时，10us一个桶，最大5ms
+    private final Histogram mDrainTime = new Histogram(10, 500);
+    private final Histogram mDrawCalls = new Histogram(1, 16);
+    //每帧执行的命令个数，合并后应与触摸事件频率无关
+    private final Histogram mCommands = new Histogram(1, 32);
+    private long mFrameCount;
+    private long mDroppedFrames;
+    private long mFilterInits;
+    private long mFilterPrewarmed;
+    private long mFilterDestroys;
+    private long mCoalescedCommands;
+
+    //以下只在GL线程中访问
+    private long mRefreshPeriodNanos = 1000000000L / 60;
+    private long mLastFrameStartNanos;
+    //上一帧结束时动画还在进行，本帧是它请求的
+    private boolean mLastFrameAnimating;
+    private long mFrameStartNanos;
+    private long mFrameDrainNanos;
+    private int mFrameDrawCalls;
+    private int mFrameCommands;
+    private int mFrameCoalesced;
+    private int mPendingInits;
+    private int mPendingPrewarmed;
+    private int mPendingDestroys;
+
+    void setRefreshRate(float refreshRate) {
+        if (refreshRate > 0) {
+            mRefreshPeriodNanos = (long) (1000000000L / refreshRate);
+        }
+    }
+
+    void beginFrame(long nowNanos) {
+        mFrameStartNanos = nowNanos;
+        mFrameDrainNanos = 0;
+        mFrameDrawCalls = 0;
+        mFrameCommands = 0;
+        mFrameCoalesced = 0;
+    }
+
+    /**
+     * @param commands 执行的命令个数
+     * @param coalesced 被合并而没有执行的命令个数
+     */
+    void onDrain(long durationNanos, int commands, int coalesced) {
+        mFrameDrainNanos += durationNanos;
+        mFrameCommands += commands;
+        mFrameCoalesced += coalesced;
+    }
+
+    void onDraw() {
+        mFrameDrawCalls++;
+    }
+
+    /**
+     * @param prewarmed 是否已在后台初始化
+     */
+    void onFilterInit(boolean prewarmed) {
+        if (prewarmed) {
+            mPendingPrewarmed++;
+        } else {
+            mPendingInits++;
+        }
+    }
+
+    void onFilterDestroy() {
+        mPendingDestroys++;
+    }
+
+    /**
+     * 按需绘制时帧间隔取决于触摸事件，手指停住不是掉帧。只有渲染线程自己驱动的连续动画（回弹、导出）
+     * 按与上一帧的间隔计算掉帧，其他帧（包括拖动）按本帧的耗时超过了几个刷新周期计算
+     * @param animating 本帧结束后动画还在进行，已请求下一帧
+     */
+    void endFrame(long nowNanos, boolean animating) {
+        long dropped;
+        long interval = mFrameStartNanos - mLastFrameStartNanos;
+        if (mLastFrameAnimating && interval < MAX_FRAME_GAP_NANOS) {
+            dropped = Math.max(0, (interval + mRefreshPeriodNanos / 2) / mRefreshPeriodNanos - 1);
+        } else {
+            dropped = Math.max(0, (nowNanos - mFrameStartNanos - 1) / mRefreshPeriodNanos);
+        }
+        mLastFrameStartNanos = mFrameStartNanos;
+        mLastFrameAnimating = animating;
+        synchronized (this) {
+            mFrameCount++;
+            mDroppedFrames += dropped;
+            mFrameTime.record((nowNanos - mFrameStartNanos) / 1000);
+            mDrainTime.record(mFrameDrainNanos / 1000);
+            mDrawCalls.record(mFrameDrawCalls);
+            mCommands.record(mFrameCommands);
+            mCoalescedCommands += mFrameCoalesced;
+            mFilterInits += mPendingInits;
+            mFilterPrewarmed += mPendingPrewarmed;
+            mFilterDestroys += mPendingDestroys;
+        }
+        mPendingInits = 0;
+        mPendingPrewarmed = 0;
+        mPendingDestroys = 0;
+    }
+
+    /**
+     * @param reset 是否同时清空，两次快照之间的帧不会遗漏
+     */
+    synchronized FrameMetrics snapshot(boolean reset) {
+        FrameMetrics metrics = new FrameMetrics(mFrameCount, mDroppedFrames,
+                mFrameTime.copy(), mDrainTime.copy(), mDrawCalls.copy(), mCommands.copy(),
+                mCoalescedCommands, mFilterInits, mFilterPrewarmed, mFilterDestroys);
+        if (reset) {
+            mFrameCount = 0;
+            mDroppedFrames = 0;
+            mFrameTime.reset();
+            mDrainTime.reset();
+            mDrawCalls.reset();
+            mCommands.reset();
+            mCoalescedCommands = 0;
+            mFilterInits = 0;
+            mFilterPrewarmed = 0;
+            mFilterDestroys = 0;
+        }
+        return metrics;
+    }
+}
@@ -5,22 +5,24 @@ import android.content.Context;
 import android.content.pm.ConfigurationInfo;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
 import android.graphics.PixelFormat;
+import android.media.ExifInterface;
 import android.net.Uri;
 import android.opengl.GLSurfaceView;
-import android.os.AsyncTask;
 import android.provider.MediaStore;
 import android.util.AttributeSet;
+import android.util.LruCache;
 import android.view.Display;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.WindowManager;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
+import java.io.InterruptedIOException;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -34,10 +36,60 @@ public class GPUImagePager extends FilterPagerLayout {
     private GPUImageRenderer mRenderer;
     private GLSurfaceView mGlSurfaceView;
     private Bitmap mCurrentBitmap;
+    //mCurrentBitmap由解码得到，不再使用时放回Bitmap池
+    private boolean mCurrentBitmapPooled;
+    private final BitmapPool mBitmapPool = new BitmapPool(BitmapPool.DEFAULT_MAX_BYTES);
+    private final ImageLoader mImageLoader = new ImageLoader();
+    //已解码的图片，只在主线程中访问
+    private final LruCache<String, CachedImage> mMemoryCache =
+            new LruCache<String, CachedImage>(getDefaultMemoryCacheSize()) {
+        @Override
+        protected int sizeOf(String key, CachedImage value) {
+            return value.bitmap.getByteCount();
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, String key, CachedImage oldValue, CachedImage newValue) {
+            if (oldValue.bitmap != mCurrentBitmap && (newValue == null || oldValue.bitmap != newValue.bitmap)) {
+                recycleBitmap(oldValue.bitmap);
+            }
+        }
+    };
+    private String mCurrentBitmapKey;
+    private final HttpDiskCache mDiskCache;
+    private final ImageLoader.Callback mImageLoadCallback = new ImageLoader.Callback() {
+        @Override
+        public void onLoaded(String key, Bitmap bitmap, ImageOrientation orientation) {
+            if (bitmap == null) {
+                deleteCurrentImage();
+                return;
+            }
+            //尺寸不同时渲染线程会重新分配纹理
+            setImage(bitmap, orientation, true);
+            mMemoryCache.put(key, new CachedImage(bitmap, orientation));
+            mCurrentBitmapKey = key;
+        }
+
+        @Override
+        public void onPreview(String key, Bitmap preview, ImageOrientation orientation) {
+            //预览图不放入内存缓存，被原图替换后放回Bitmap池
+            setImage(preview, orientation, true);
+        }
+
+        @Override
+        public void onDiscarded(Bitmap bitmap) {
+            mBitmapPool.put(bitmap);
+        }
+    };
     private ScaleType mScaleType = ScaleType.CENTER_CROP;
+    private volatile boolean mRegionDecode;
+    private volatile boolean mProgressive;
 
     private boolean mFirstLayout = true;
 
+    private static final String DISK_CACHE_DIR = "gpuimagepager";
+    private static final long MAX_MEMORY_CACHE_BYTES = 32 * 1024 * 1024;
+
     public GPUImagePager(Context context) {
         this(context, null);
     }
@@ -45,6 +97,8 @@ public class GPUImagePager extends FilterPagerLayout {
     public GPUImagePager(Context context, AttributeSet attrs) {
         super(context, attrs);
         this.mContext = context;
+        mDiskCache = new HttpDiskCache(new File(context.getCacheDir(), DISK_CACHE_DIR),
+                HttpDiskCache.DEFAULT_MAX_BYTES);
 
         mGlSurfaceView = new GLSurfaceView(mContext);
         addView(mGlSurfaceView, 0, new LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT
@@ -83,24 +137,89 @@ public class GPUImagePager extends FilterPagerLayout {
      * Sets the image on which the filter should be applied.
      */
     public void setImage(final Bitmap bitmap) {
-        mCurrentBitmap = bitmap;
-        mRenderer.setImageBitmap(bitmap, false);
+        mImageLoader.cancel();
+        setImage(bitmap, ImageOrientation.NORMAL, false);
+    }
+
+    /**
+     * @param orientation 图片方向，只改变贴图坐标，不旋转、翻转像素
+     * @param pooled bitmap是解码得到的，被替换后放回Bitmap池
+     */
+    private void setImage(Bitmap bitmap, ImageOrientation orientation, boolean pooled) {
+        mRenderer.setImageBitmap(bitmap, orientation, false);
+        setCurrentBitmap(bitmap, pooled);
         requestRender();
     }
 
+    private void setCurrentBitmap(Bitmap bitmap, boolean pooled) {
+        Bitmap old = mCurrentBitmap;
+        //还在内存缓存中的由缓存淘汰时回收
+        CachedImage cached = mCurrentBitmapKey != null ? mMemoryCache.get(mCurrentBitmapKey) : null;
+        if (old != null && old != bitmap && mCurrentBitmapPooled && (cached == null || cached.bitmap != old)) {
+            recycleBitmap(old);
+        }
+        mCurrentBitmap = bitmap;
+        mCurrentBitmapPooled = pooled && bitmap != null;
+        mCurrentBitmapKey = null;
+    }
+
+    private void recycleBitmap(Bitmap bitmap) {
+        if (mRenderer != null) {
+            mRenderer.recycleBitmap(bitmap, mBitmapPool);
+        } else {
+            mBitmapPool.put(bitmap);
+        }
+    }
+
+    private static int getDefaultMemoryCacheSize() {
+        return (int) Math.min(Runtime.getRuntime().maxMemory() / 8, MAX_MEMORY_CACHE_BYTES);
+    }
+
     /**
      * Sets the image on which the filter should be applied.
      */
     public void setImage(Uri uri) {
-        new LoadImageUriTask(this, uri).execute(getOutputWidth(), getOutputHeight());
+        LoadImageUriTask task = new LoadImageUriTask(uri, getOutputWidth(), getOutputHeight());
+        String key = task.getKey();
+        CachedImage cached = mMemoryCache.get(key);
+        if (cached != null) {
+            mImageLoader.cancel();
+            if (cached.bitmap != mCurrentBitmap) {
+                setImage(cached.bitmap, cached.orientation, true);
+            }
+            mCurrentBitmapKey = key;
+            return;
+        }
+        mImageLoader.load(key, task, mImageLoadCallback);
+    }
+
+    /**
+     * Sets the maximum size of the on-disk cache of downloaded http(s) images.
+     */
+    public void setDiskCacheSize(long maxBytes) {
+        mDiskCache.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Drops all decoded images kept in memory and the idle offscreen render targets.
+     * Call from onTrimMemory.
+     */
+    public void clearMemoryCache() {
+        mMemoryCache.evictAll();
+        mRenderer.trimRenderTargets();
     }
 
     /**
      * Deletes the current image.
      */
     public void deleteImage() {
+        mImageLoader.cancel();
+        deleteCurrentImage();
+    }
+
+    private void deleteCurrentImage() {
         mRenderer.deleteImage();
-        mCurrentBitmap = null;
+        setCurrentBitmap(null, false);
         requestRender();
     }
 
@@ -110,12 +229,249 @@ public class GPUImagePager extends FilterPagerLayout {
      */
     public void setScaleType(ScaleType scaleType) {
         mScaleType = scaleType;
+        mImageLoader.cancel();
         mRenderer.setScaleType(scaleType);
         mRenderer.deleteImage();
+        setCurrentBitmap(null, false);
+        requestRender();
+    }
+
+    /**
+     * Sets how many bytes of decoded bitmaps are kept for reuse by later
+     * {@link #setImage(Uri)} calls. Bitmaps are reused through inBitmap on API 19 and above.
+     */
+    public void setBitmapPoolSize(long maxBytes) {
+        mBitmapPool.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Returns how many decodes reused a pooled bitmap.
+     */
+    public long getBitmapPoolHitCount() {
+        return mBitmapPool.getHitCount();
+    }
+
+    /**
+     * Returns how many decodes found no pooled bitmap to reuse.
+     */
+    public long getBitmapPoolMissCount() {
+        return mBitmapPool.getMissCount();
+    }
+
+    /**
+     * With {@link ScaleType#CENTER_CROP}, decodes only the part of the image that stays visible
+     * after cropping, so cropped pixels are never decoded. Applies to the next
+     * {@link #setImage(Uri)}. The image has to be reset when the view's aspect ratio changes.
+     */
+    public void setRegionDecodeEnabled(boolean enabled) {
+        mRegionDecode = enabled;
+    }
+
+    /**
+     * Shows a heavily subsampled preview of large images as soon as it is decoded, so the
+     * pager can be swiped right away, and swaps in the full image when its decode completes.
+     * Applies to the next {@link #setImage(Uri)}.
+     */
+    public void setProgressiveLoadingEnabled(boolean enabled) {
+        mProgressive = enabled;
+    }
+
+    /**
+     * Uploads new images to the GPU on a background thread with a shared GL context, so the
+     * previous image keeps rendering at full frame rate until the new texture is complete.
+     * Enabled by default; falls back to uploading on the GL thread when no shared context
+     * can be created.
+     */
+    public void setAsyncUploadEnabled(boolean enabled) {
+        mRenderer.setAsyncUploadEnabled(enabled);
+    }
+
+    /**
+     * Downscales images that are much larger than the view on the GPU right after upload and
+     * drops the full-resolution texture, so every filter pass samples a texture the size of
+     * the view instead of the source image. The downscale is done in repeated halvings to
+     * avoid aliasing. Applies to images set afterwards; set the image again if the view grows.
+     * Disabled by default.
+     */
+    public void setDownscaleOnUpload(boolean enabled) {
+        mRenderer.setDownscaleOnUpload(enabled);
+    }
+
+    /**
+     * Renders the current page and its left and right neighbors once into offscreen textures
+     * while the pager is at rest, and only blits those textures at the split position while
+     * dragging or settling, so swiping costs the same for every filter. The cache is dropped
+     * when the image, the filter window, the scale type or the view size changes.
+     * Disabled by default.
+     *
+     * @param maxBytes GPU memory budget of the cache, one page takes width * height * 4 bytes;
+     *                 filters are drawn as usual when both visible pages don't fit
+     */
+    public void setPageCacheEnabled(boolean enabled, long maxBytes) {
+        mRenderer.setPageCache(enabled, maxBytes);
+        requestRender();
+    }
+
+    /**
+     * Same as {@link #setPageCacheEnabled(boolean, long)} with a 32 MB budget.
+     */
+    public void setPageCacheEnabled(boolean enabled) {
+        setPageCacheEnabled(enabled, PageCache.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Drops the cached pages. Call after changing the parameters of a visible filter.
+     */
+    public void invalidatePageCache() {
+        mRenderer.invalidatePageCache();
+        requestRender();
+    }
+
+    /**
+     * Renders the current image offscreen with each of the given filters and reads the results
+     * back, without changing what is shown. Results are at the source resolution (or the
+     * downscaled texture size when {@link #setDownscaleOnUpload} is enabled), upright and with the
+     * current rotation and flip applied. One filter is rendered per frame, interleaved with normal
+     * drawing; on OpenGL ES 3.0 the readback is double-buffered through pixel buffers so the GPU
+     * is never stalled, on ES 2.0 it falls back to a synchronous read.
+     *
+     * @param asBitmap true for ARGB_8888 bitmaps, false for direct RGBA buffers
+     * @param callback receives the results in order on the main thread
+     */
+    public void exportFilters(List<Filter> filters, boolean asBitmap, ExportCallback callback) {
+        mRenderer.exportFilters(filters, asBitmap, callback);
+        requestRender();
+    }
+
+    /**
+     * Same as {@link #exportFilters(List, boolean, ExportCallback)} for a single filter as a bitmap.
+     */
+    public void exportFilter(Filter filter, ExportCallback callback) {
+        exportFilters(Collections.singletonList(filter), true, callback);
+    }
+
+    /**
+     * Renders the split at a reduced resolution while dragging or settling and upscales it,
+     * switching back to full resolution as soon as the pager is idle. The resolution is
+     * adapted between 0.5x and 1x from the measured cost of each split frame (CPU time plus GPU time).
+     */
+    public void setDynamicResolution(boolean enabled) {
+        setDynamicResolution(enabled, ResolutionScaler.DEFAULT_MIN_SCALE, ResolutionScaler.DEFAULT_MAX_SCALE);
+    }
+
+    /**
+     * Same as {@link #setDynamicResolution(boolean)} with a custom scale range.
+     *
+     * @param minScale lowest resolution scale, e.g. 0.5
+     * @param maxScale highest resolution scale, 1 renders at full resolution
+     */
+    public void setDynamicResolution(boolean enabled, float minScale, float maxScale) {
+        mRenderer.setDynamicResolution(enabled, minScale, maxScale);
+    }
+
+    /**
+     * Sets how two filters are drawn while both are visible during a drag or settle.
+     * {@link SplitMode#FRAMEBUFFER} (default) renders through an offscreen framebuffer,
+     * {@link SplitMode#SCISSOR} draws each half straight to the screen.
+     */
+    public void setSplitMode(SplitMode splitMode) {
+        mRenderer.setSplitMode(splitMode);
+        requestRender();
+    }
+
+    public SplitMode getSplitMode() {
+        return mRenderer.getSplitMode();
+    }
+
+    /**
+     * Returns the number of pixels filled by the last rendered frame, offscreen framebuffer
+     * included. Compare the values of the split modes while dragging to measure fill rate.
+     */
+    public long getLastFrameFillPixels() {
+        return mRenderer.getLastFramePixels();
+    }
+
+    /**
+     * Returns the frame metrics collected since the last reset: CPU time of each frame,
+     * command queue time, filter draw calls, filter init/destroy counts and dropped frames.
+     */
+    public FrameMetrics getFrameMetrics() {
+        return getFrameMetrics(false);
+    }
+
+    /**
+     * Same as {@link #getFrameMetrics()}.
+     *
+     * @param reset clears the collected metrics in the same step, so that no frame is
+     *              lost between two periodic reports
+     */
+    public FrameMetrics getFrameMetrics(boolean reset) {
+        return mRenderer.getFrameMetrics(reset);
+    }
+
+    /**
+     * Measures the GPU time of every filter draw. Uses timer queries where the driver supports
+     * GL_EXT_disjoint_timer_query; otherwise it waits for the GPU around each draw, which
+     * stalls the pipeline, so only enable it while profiling.
+     */
+    public void setFilterProfilingEnabled(boolean enabled) {
+        mRenderer.setFilterProfiling(enabled);
+        requestRender();
+    }
+
+    /**
+     * Returns the GPU cost of each filter measured since the last reset, keyed by the
+     * filter's toString() and ranked from the most expensive draw on average.
+     */
+    public List<FilterCost> getFilterProfile() {
+        return mRenderer.getFilterProfiler().getReport();
+    }
+
+    public void resetFilterProfile() {
+        mRenderer.getFilterProfiler().reset();
+    }
+
+    /**
+     * Installs a tracer that receives begin/end sections around frame drawing, the render
+     * command queue, each filter draw, texture upload and the settle animation, e.g.
+     * {@link PagerTracer#SYSTEM}. Pass null to turn tracing off; without a tracer each
+     * section costs a single null check.
+     */
+    public static void setTracer(PagerTracer tracer) {
+        PagerTrace.setTracer(tracer);
+    }
+
+    /**
+     * Sets how many initialized filters are kept alive. Filters that only move inside the
+     * left/cur/right window are never re-initialized; the least recently used one is
+     * destroyed when the cache is full. Minimum is 3.
+     */
+    public void setFilterCacheSize(int maxSize) {
+        mRenderer.setFilterCacheSize(maxSize);
+    }
+
+    /**
+     * Destroys all filters and offscreen framebuffers held by the renderer.
+     * Call when the pager is no longer used.
+     */
+    public void release() {
+        mImageLoader.cancel();
         mCurrentBitmap = null;
+        mCurrentBitmapPooled = false;
+        mMemoryCache.evictAll();
+        mRenderer.release();
+        //等被淘汰的Bitmap放回池中之后再清空
+        mRenderer.clearBitmapPool(mBitmapPool);
         requestRender();
     }
 
+    /**
+     * Returns how many bytes of GPU memory the offscreen framebuffers currently hold.
+     */
+    public long getRenderTargetBytes() {
+        return mRenderer.getRenderTargetBytes();
+    }
+
     @Override
     protected void setFilter(Filter left, Filter cur, Filter right) {
         mRenderer.setFilter(left, cur, right);
@@ -126,6 +482,43 @@ public class GPUImagePager extends FilterPagerLayout {
         mRenderer.setScrollX(cur, scrollX, dragToLeft);
     }
 
+    @Override
+    boolean startRenderSettle(Filter cur, float curOffsetPixel, int width,
+                              SettleScroller settle, Runnable onFinished) {
+        if (mRenderer == null) {
+            return false;
+        }
+        mRenderer.startSettle(cur, curOffsetPixel, width, settle, onFinished);
+        requestRender();
+        return true;
+    }
+
+    @Override
+    void cancelRenderSettle() {
+        if (mRenderer != null) {
+            mRenderer.cancelSettle();
+            requestRender();
+        }
+    }
+
+    @Override
+    protected void onScrollStateChanged(int newState) {
+        if (mRenderer != null) {
+            mRenderer.setScrollState(newState);
+            if (newState == SCROLL_STATE_IDLE) {
+                //停止滑动后立即绘制一帧全分辨率画面
+                requestRender();
+            }
+        }
+    }
+
+    @Override
+    protected void prewarmFilters(List<Filter> filters) {
+        if (mRenderer != null) {
+            mRenderer.prewarmFilters(filters);
+        }
+    }
+
     @Override
     protected void requestLayoutGpuImageView() {
         requestRender();
@@ -149,8 +542,18 @@ public class GPUImagePager extends FilterPagerLayout {
         mGlSurfaceView = view;
         mGlSurfaceView.setEGLContextClientVersion(2);
         mGlSurfaceView.setEGLConfigChooser(8, 8, 8, 8, 16, 0);
+        mGlSurfaceView.setEGLContextFactory(mRenderer.getFilterPrewarmer());
         mGlSurfaceView.getHolder().setFormat(PixelFormat.RGBA_8888);
         mGlSurfaceView.setRenderer(mRenderer);
+        WindowManager windowManager =
+                (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+        mRenderer.setRefreshRate(windowManager.getDefaultDisplay().getRefreshRate());
+        mRenderer.setRenderRequester(new Runnable() {
+            @Override
+            public void run() {
+                mGlSurfaceView.requestRender();
+            }
+        });
         mGlSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
         mGlSurfaceView.requestRender();
     }
@@ -195,37 +598,84 @@ public class GPUImagePager extends FilterPagerLayout {
         }
     }
 
+    /**
+     * 内存缓存中的图片和它的显示方向
+     */
+    private static class CachedImage {
+        final Bitmap bitmap;
+        final ImageOrientation orientation;
+
+        CachedImage(Bitmap bitmap, ImageOrientation orientation) {
+            this.bitmap = bitmap;
+            this.orientation = orientation;
+        }
+    }
+
     private class LoadImageUriTask extends LoadImageTask {
 
         private final Uri mUri;
+        private File mFile;
 
-        public LoadImageUriTask(GPUImagePager gpuImage, Uri uri) {
-            super(gpuImage);
+        public LoadImageUriTask(Uri uri, int outputWidth, int outputHeight) {
+            super(outputWidth, outputHeight);
             mUri = uri;
         }
 
         @Override
-        protected Bitmap decode(BitmapFactory.Options options) {
+        String getKey() {
+            return mUri + " " + super.getKey();
+        }
+
+        @Override
+        protected void prepare() throws IOException {
+            if (mUri.getScheme().startsWith("http") || mUri.getScheme().startsWith("https")) {
+                //只下载一次，两次解码都从缓存文件读取
+                mFile = mDiskCache.get(mUri.toString());
+            }
+        }
+
+        @Override
+        protected void release() {
+            if (mFile != null) {
+                //两次解码都已完成，允许trim删除
+                mDiskCache.release(mFile);
+                mFile = null;
+            }
+        }
+
+        @Override
+        protected InputStream openStream() throws IOException {
+            if (mFile != null) {
+                return new FileInputStream(mFile);
+            } else {
+                return mContext.getContentResolver().openInputStream(mUri);
+            }
+        }
+
+        @Override
+        protected ImageOrientation readOrientation() {
             try {
-                InputStream inputStream;
-                if (mUri.getScheme().startsWith("http") || mUri.getScheme().startsWith("https")) {
-                    inputStream = new URL(mUri.toString()).openStream();
-                } else {
-                    inputStream = mContext.getContentResolver().openInputStream(mUri);
+                if (mFile != null) {
+                    return getExifOrientation(mFile.getPath());
+                }
+                if ("file".equals(mUri.getScheme())) {
+                    return getExifOrientation(mUri.getPath());
                 }
-                return BitmapFactory.decodeStream(inputStream, null, options);
+                return ImageOrientation.fromDegrees(getMediaStoreOrientation());
             } catch (Exception e) {
-                e.printStackTrace();
+                return ImageOrientation.NORMAL;
             }
-            return null;
         }
 
-        @Override
-        protected int getImageOrientation() throws IOException {
+        private int getMediaStoreOrientation() {
             Cursor cursor = mContext.getContentResolver().query(mUri,
                     new String[]{MediaStore.Images.ImageColumns.ORIENTATION}, null, null, null);
 
-            if (cursor == null || cursor.getCount() != 1) {
+            if (cursor == null) {
+                return 0;
+            }
+            if (cursor.getCount() != 1) {
+                cursor.close();
                 return 0;
             }
 
@@ -234,153 +684,130 @@ public class GPUImagePager extends FilterPagerLayout {
             cursor.close();
             return orientation;
         }
+
+        private ImageOrientation getExifOrientation(String path) throws IOException {
+            return ImageOrientation.fromExif(new ExifInterface(path).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
+        }
     }
 
-    private abstract class LoadImageTask extends AsyncTask<Integer, Void, Bitmap> {
+    private abstract class LoadImageTask implements ImageLoader.Task, ImageDecoder.Source {
 
-        private final GPUImagePager mGPUImage;
+        private final ScaleType mTaskScaleType;
+        private final boolean mTaskRegionDecode;
+        private final boolean mTaskProgressive;
         private int mOutputWidth;
         private int mOutputHeight;
+        private ImageLoader.Request mRequest;
+        //null为还没读取
+        private ImageOrientation mOrientation;
+
+        public LoadImageTask(int outputWidth, int outputHeight) {
+            mTaskScaleType = mScaleType;
+            mTaskRegionDecode = mRegionDecode;
+            mTaskProgressive = mProgressive;
+            mOutputWidth = outputWidth;
+            mOutputHeight = outputHeight;
+        }
 
-        @SuppressWarnings("deprecation")
-        public LoadImageTask(final GPUImagePager gpuImage) {
-            mGPUImage = gpuImage;
+        /**
+         * @return 解码结果相同的任务key相同
+         */
+        String getKey() {
+            return mTaskScaleType + " " + mTaskRegionDecode + " " + mOutputWidth + "x" + mOutputHeight;
         }
 
         @Override
-        protected Bitmap doInBackground(Integer... params) {
-            if (mRenderer != null && mRenderer.getFrameWidth() == 0) {
+        public Bitmap load(ImageLoader.Request request) {
+            mRequest = request;
+            GPUImageRenderer renderer = mRenderer;
+            if (renderer != null && renderer.getFrameWidth() == 0) {
                 try {
-                    synchronized (mRenderer.mSurfaceChangedWaiter) {
-                        mRenderer.mSurfaceChangedWaiter.wait(3000);
+                    synchronized (renderer.mSurfaceChangedWaiter) {
+                        if (renderer.getFrameWidth() == 0) {
+                            renderer.mSurfaceChangedWaiter.wait(3000);
+                        }
                     }
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    //请求已取消
+                    return null;
                 }
             }
-            mOutputWidth = params[0];
-            mOutputHeight = params[1];
+            if (request.isCancelled()) {
+                return null;
+            }
+            if (renderer != null && renderer.getFrameWidth() != 0) {
+                //按GLSurfaceView的实际尺寸解码
+                mOutputWidth = renderer.getFrameWidth();
+                mOutputHeight = renderer.getFrameHeight();
+            }
             return loadResizedImage();
         }
 
         @Override
-        protected void onPostExecute(Bitmap bitmap) {
-            super.onPostExecute(bitmap);
-            mGPUImage.deleteImage();
-            mGPUImage.setImage(bitmap);
+        public final InputStream open() throws IOException {
+            if (mRequest != null && mRequest.isCancelled()) {
+                throw new InterruptedIOException("load cancelled");
+            }
+            return openStream();
         }
 
-        protected abstract Bitmap decode(BitmapFactory.Options options);
+        protected abstract InputStream openStream() throws IOException;
 
-        private Bitmap loadResizedImage() {
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            decode(options);
-            int scale = 1;
-            while (checkSize(options.outWidth / scale > mOutputWidth, options.outHeight / scale > mOutputHeight)) {
-                scale++;
-            }
+        /**
+         * 在后台线程中读取图片方向
+         */
+        protected ImageOrientation readOrientation() {
+            return ImageOrientation.NORMAL;
+        }
 
-            scale--;
-            if (scale < 1) {
-                scale = 1;
-            }
-            scale = 1;
-            options = new BitmapFactory.Options();
-            options.inSampleSize = scale;
-            options.inPreferredConfig = Bitmap.Config.RGB_565;
-            options.inPurgeable = true;
-            options.inTempStorage = new byte[32 * 1024];
-            Bitmap bitmap = decode(options);
-            if (bitmap == null) {
-                return null;
-            }//TODO 暂时加载原图，让opengl来处理图片适用性
-//            bitmap = rotateImage(bitmap);
-//            bitmap = scaleBitmap(bitmap);
-            return bitmap;
-        }
-
-        private Bitmap scaleBitmap(Bitmap bitmap) {
-            // resize to desired dimensions
-            int width = bitmap.getWidth();
-            int height = bitmap.getHeight();
-            int[] newSize = getScaleSize(width, height);
-            Bitmap workBitmap = Bitmap.createScaledBitmap(bitmap, newSize[0], newSize[1], true);
-            if (workBitmap != bitmap) {
-                bitmap.recycle();
-                bitmap = workBitmap;
-                System.gc();
-            }
+        @Override
+        public final int getOrientation() {
+            return getImageOrientation().rotation.asInt();
+        }
 
-            if (mScaleType == ScaleType.CENTER_CROP) {
-                // Crop it
-                int diffWidth = newSize[0] - mOutputWidth;
-                int diffHeight = newSize[1] - mOutputHeight;
-                workBitmap = Bitmap.createBitmap(bitmap, diffWidth / 2, diffHeight / 2,
-                        newSize[0] - diffWidth, newSize[1] - diffHeight);
-                if (workBitmap != bitmap) {
-                    bitmap.recycle();
-                    bitmap = workBitmap;
-                }
+        @Override
+        public final ImageOrientation getImageOrientation() {
+            if (mOrientation == null) {
+                mOrientation = readOrientation();
             }
-
-            return bitmap;
+            return mOrientation;
         }
 
         /**
-         * Retrieve the scaling size for the image dependent on the ScaleType.<br>
-         * <br>
-         * If CROP: sides are same size or bigger than output's sides<br>
-         * Else   : sides are same size or smaller than output's sides
+         * 解码前在后台线程中执行，如下载
          */
-        private int[] getScaleSize(int width, int height) {
-            float newWidth;
-            float newHeight;
-
-            float withRatio = (float) width / mOutputWidth;
-            float heightRatio = (float) height / mOutputHeight;
-
-            boolean adjustWidth = mScaleType == ScaleType.CENTER_CROP
-                    ? withRatio > heightRatio : withRatio < heightRatio;
-
-            if (adjustWidth) {
-                newHeight = mOutputHeight;
-                newWidth = (newHeight / height) * width;
-            } else {
-                newWidth = mOutputWidth;
-                newHeight = (newWidth / width) * height;
-            }
-            return new int[]{Math.round(newWidth), Math.round(newHeight)};
+        protected void prepare() throws IOException {
         }
 
-        private boolean checkSize(boolean widthBigger, boolean heightBigger) {
-            if (mScaleType == ScaleType.CENTER_CROP) {
-                return widthBigger && heightBigger;
-            } else {
-                return widthBigger || heightBigger;
-            }
+        /**
+         * 解码结束后在同一线程中执行，释放prepare占用的资源
+         */
+        protected void release() {
         }
 
-        private Bitmap rotateImage(final Bitmap bitmap) {
-            if (bitmap == null) {
-                return null;
-            }
-            Bitmap rotatedBitmap = bitmap;
+        private Bitmap loadResizedImage() {
             try {
-                int orientation = getImageOrientation();
-                if (orientation != 0) {
-                    Matrix matrix = new Matrix();
-                    matrix.postRotate(orientation);
-                    rotatedBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(),
-                            bitmap.getHeight(), matrix, true);
-                    bitmap.recycle();
+                prepare();
+                ImageDecoder decoder = new ImageDecoder(mTaskScaleType, mOutputWidth, mOutputHeight,
+                        mTaskRegionDecode, mBitmapPool);
+                if (mTaskProgressive) {
+                    decoder.setPreviewListener(new ImageDecoder.PreviewListener() {
+                        @Override
+                        public void onPreview(Bitmap preview) {
+                            mRequest.publishPreview(preview);
+                        }
+                    });
                 }
+                return decoder.decode(this);
+            } catch (InterruptedIOException e) {
+                return null;
             } catch (IOException e) {
                 e.printStackTrace();
+                return null;
+            } finally {
+                release();
             }
-            return rotatedBitmap;
         }
-
-        protected abstract int getImageOrientation() throws IOException;
     }
 }
\ No newline at end of file
@@ -1,21 +1,23 @@
 package com.mrq.library.gpufilterpager;
 
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
 import android.graphics.SurfaceTexture;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import static com.mrq.library.gpufilterpager.ScrollGeometry.CUBE;
 import static com.mrq.library.gpufilterpager.TextureRotationUtil.TEXTURE_NO_ROTATION;
 
 /**
@@ -25,8 +27,10 @@ import static com.mrq.library.gpufilterpager.TextureRotationUtil.TEXTURE_NO_ROTA
 
 class GPUImageRenderer implements GLSurfaceView.Renderer{
     private static final String TAG = "GPUImagePager";
-    private static final boolean DEBUG = true;
+    private static final boolean DEBUG = false;
     private static final int NO_IMAGE = OpenGlUtils.NO_TEXTURE;
+    //显示比例低于这个值时才缩小图片
+    private static final float DOWNSCALE_MAX_SCALE = 0.75f;
 
     final Object mSurfaceChangedWaiter = new Object();
 
@@ -34,11 +38,21 @@ class GPUImageRenderer implements GLSurfaceView.Renderer{
     private Filter mLeftFilter;
     private Filter mCurFilter;
     private Filter mRightFilter;
+    private final FilterCache mFilterCache;
+    private final FilterPrewarmer mFilterPrewarmer;
+    private int mFilterCacheSize = FilterCache.DEFAULT_MAX_SIZE;
+    private int mPrewarmSize = 0;
+    //后台预热完成了新的滤镜，还没就绪的左中右滤镜可以换上
+    private volatile boolean mFiltersWarmed;
 
     private boolean mDragToLeft;
 
-    private int mGLTextureId = NO_IMAGE;
+    //当前图片，超过GL_MAX_TEXTURE_SIZE时分块
+    private ImageTexture mImageTexture;
     private SurfaceTexture mSurfaceTexture = null;
+    //整屏只显示一个滤镜时使用
+    private final FloatBuffer mGLCubeBuffer;
+    private final FloatBuffer mGLTextureBuffer;
     private final FloatBuffer mGLLeftCubeBuffer;
     private final FloatBuffer mGLRightCubeBuffer;
     private final FloatBuffer mGLLeftTextureBuffer;
@@ -49,20 +63,51 @@ class GPUImageRenderer implements GLSurfaceView.Renderer{
     private final FloatBuffer mGLLeftFlipTextureBuffer;
     private final FloatBuffer mGLRightFlipTextureBuffer;
 
-    private int[] mFrameBuffers;
-    private int[] mFrameBufferTextures;
+    //滑动时的坐标计算，上面的Buffer都属于它
+    private final ScrollGeometry mScrollGeometry = new ScrollGeometry();
+
+    private final RenderTargetPool mRenderTargetPool;
+    private final FrameMetricsRecorder mMetrics = new FrameMetricsRecorder();
+    private final FilterProfiler mProfiler = new FilterProfiler();
+    private boolean mProfiling;
+    private RenderTargetPool.RenderTarget mSplitTarget;
 
     private int mOutputWidth;
     private int mOutputHeight;
     private int mImageWidth;
     private int mImageHeight;
 
-    private final Queue<Runnable> mRunOnDraw;
-    private final Queue<Runnable> mRunOnDrawEnd;
+    private final RenderCommandQueue mRunOnDraw;
+    private final RenderCommandQueue mRunOnDrawEnd;
     private Rotation mRotation;
     private boolean mFlipHorizontal;
     private boolean mFlipVertical;
     private ScaleType mScaleType = ScaleType.CENTER_CROP;
+    private volatile SplitMode mSplitMode = SplitMode.FRAMEBUFFER;
+
+    private volatile long mLastFramePixels;
+
+    //滑动过程中降低分辨率绘制再放大到屏幕
+    private volatile boolean mDynamicResolution;
+    //上传后把图片缩小到显示尺寸，丢弃原分辨率纹理
+    private volatile boolean mDownscaleOnUpload;
+    private volatile int mScrollState = FilterPagerLayout.SCROLL_STATE_IDLE;
+    //缓存已渲染的页面，拖动时只贴图
+    private final PageCache mPageCache;
+    private boolean mPageCacheEnabled;
+    //离屏导出，绘制时上下翻转，读回的第0行是图片顶部
+    private final FilterExporter mExporter;
+    private final FloatBuffer mGLExportCubeBuffer;
+    private final FloatBuffer mGLExportTextureBuffer;
+    private final float[] mExportTextureCords = new float[8];
+    private final ResolutionScaler mResolutionScaler = new ResolutionScaler();
+    //测量分屏绘制的开销，GL上下文创建后再按当前上下文创建
+    private FrameCostTimer mFrameCostTimer;
+    //上一帧处于动态分辨率的滑动中，只在GL线程中访问
+    private boolean mScaling;
+    private RenderTargetPool.RenderTarget mScaledTarget;
+    private final FloatBuffer mGLFullCubeBuffer;
+    private final FloatBuffer mGLFullFlipTextureBuffer;
 
     private float mBackgroundRed = 0;
     private float mBackgroundGreen = 0;
@@ -70,44 +115,72 @@ class GPUImageRenderer implements GLSurfaceView.Renderer{
 
     private int mScrollX = 0;
 
+    //渲染线程驱动的滑动动画
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Runnable mRenderRequester;
+
+    //后台上传纹理，共享上下文不可用或关闭时在GL线程中同步上传
+    private final TextureUploader mTextureUploader = new TextureUploader();
+    private volatile boolean mAsyncUpload = true;
+    //每次设置或删除图片加1，只显示最后一次设置的图片
+    private final AtomicInteger mImageSequence = new AtomicInteger();
+    //GL线程中已生效的图片序号
+    private int mAppliedSequence;
+    private final RenderSettle mSettle = new RenderSettle();
+
     GPUImageRenderer(DefaultFilterFactory filterFactory) {
         mFilter = filterFactory.create();
         mLeftFilter = filterFactory.create();
         mCurFilter = filterFactory.create();
         mRightFilter = filterFactory.create();
-
-        mRunOnDraw = new LinkedList<>();
-        mRunOnDrawEnd = new LinkedList<>();
-
-        mGLLeftCubeBuffer = ByteBuffer.allocateDirect(CUBE.length * 4)
-                .order(ByteOrder.nativeOrder())
-                .asFloatBuffer();
-        mGLLeftCubeBuffer.put(getLeftCubeFull()).position(0);
-        mGLRightCubeBuffer = ByteBuffer.allocateDirect(CUBE.length * 4)
-                .order(ByteOrder.nativeOrder())
-                .asFloatBuffer();
-        mGLRightCubeBuffer.put(getRightCubeEmpty()).position(0);
-        mGLLeftTextureBuffer = ByteBuffer.allocateDirect(TEXTURE_NO_ROTATION.length * 4)
-                .order(ByteOrder.nativeOrder())
-                .asFloatBuffer();
-        mGLRightTextureBuffer = ByteBuffer.allocateDirect(TEXTURE_NO_ROTATION.length * 4)
-                .order(ByteOrder.nativeOrder())
-                .asFloatBuffer();
-
-        mGLLeftNormalCubeBuffer = ByteBuffer.allocateDirect(CUBE.length * 4)
+        mFilterPrewarmer = new FilterPrewarmer();
+        mFilterPrewarmer.addSharedContextClient(mTextureUploader);
+        mFilterPrewarmer.setOnWarmedListener(new Runnable() {
+            @Override
+            public void run() {
+                mFiltersWarmed = true;
+                Runnable requester = mRenderRequester;
+                if (requester != null) {
+                    requester.run();
+                }
+            }
+        });
+        mFilterCache = new FilterCache(mFilterCacheSize, mFilterPrewarmer, mMetrics);
+        mRenderTargetPool = new RenderTargetPool(RenderTargetPool.DEFAULT_MAX_IDLE_BYTES);
+        mPageCache = new PageCache(mRenderTargetPool, PageCache.DEFAULT_MAX_BYTES);
+        mExporter = new FilterExporter(mRenderTargetPool, mExportDrawer);
+
+        mRunOnDraw = new RenderCommandQueue(RenderCommandQueue.DEFAULT_CAPACITY);
+        mRunOnDrawEnd = new RenderCommandQueue(RenderCommandQueue.DEFAULT_CAPACITY);
+        mRunOnDraw.postFilters(mLeftFilter, mCurFilter, mRightFilter);
+
+        mGLCubeBuffer = mScrollGeometry.cubeBuffer;
+        mGLTextureBuffer = mScrollGeometry.textureBuffer;
+        mGLFullCubeBuffer = ByteBuffer.allocateDirect(CUBE.length * 4)
                 .order(ByteOrder.nativeOrder())
                 .asFloatBuffer();
-
-        mGLRightNormalCubeBuffer = ByteBuffer.allocateDirect(CUBE.length * 4)
+        mGLFullCubeBuffer.put(CUBE).position(0);
+        mGLFullFlipTextureBuffer = ByteBuffer.allocateDirect(TEXTURE_NO_ROTATION.length * 4)
                 .order(ByteOrder.nativeOrder())
                 .asFloatBuffer();
-
-        mGLLeftFlipTextureBuffer = ByteBuffer.allocateDirect(TEXTURE_NO_ROTATION.length * 4)
+        mGLFullFlipTextureBuffer.put(TextureRotationUtil.getRotation(Rotation.NORMAL, false, true)).position(0);
+        mGLExportCubeBuffer = ByteBuffer.allocateDirect(CUBE_FLIP_VERTICAL.length * 4)
                 .order(ByteOrder.nativeOrder())
                 .asFloatBuffer();
-        mGLRightFlipTextureBuffer = ByteBuffer.allocateDirect(TEXTURE_NO_ROTATION.length * 4)
+        mGLExportCubeBuffer.put(CUBE_FLIP_VERTICAL).position(0);
+        mGLExportTextureBuffer = ByteBuffer.allocateDirect(TEXTURE_NO_ROTATION.length * 4)
                 .order(ByteOrder.nativeOrder())
                 .asFloatBuffer();
+        mGLLeftCubeBuffer = mScrollGeometry.leftCubeBuffer;
+        mGLLeftCubeBuffer.put(getLeftCubeFull()).position(0);
+        mGLRightCubeBuffer = mScrollGeometry.rightCubeBuffer;
+        mGLRightCubeBuffer.put(getRightCubeEmpty()).position(0);
+        mGLLeftTextureBuffer = mScrollGeometry.leftTextureBuffer;
+        mGLRightTextureBuffer = mScrollGeometry.rightTextureBuffer;
+        mGLLeftNormalCubeBuffer = mScrollGeometry.leftNormalCubeBuffer;
+        mGLRightNormalCubeBuffer = mScrollGeometry.rightNormalCubeBuffer;
+        mGLLeftFlipTextureBuffer = mScrollGeometry.leftFlipTextureBuffer;
+        mGLRightFlipTextureBuffer = mScrollGeometry.rightFlipTextureBuffer;
 
         setRotation(Rotation.NORMAL, false, false);
     }
@@ -118,22 +191,36 @@ class GPUImageRenderer implements GLSurfaceView.Renderer{
         GLES20.glDisable(GLES20.GL_DEPTH_TEST);
 
         filterInit(mFilter);
-        filterInit(mLeftFilter);
-        filterInit(mCurFilter);
-        filterInit(mRightFilter);
+        //新的GL上下文，之前的FBO已失效
+        mRenderTargetPool.invalidate();
+        mPageCache.invalidate();
+        mExporter.invalidate();
+        mSplitTarget = null;
+        mScaledTarget = null;
+        mFrameCostTimer = null;
+        mScaling = false;
+        mProfiler.invalidate();
+        if (mProfiling) {
+            mProfiler.setTimingSource(FilterProfiler.createTimingSource());
+        }
+        mFilterCache.invalidate();
+        mFilterCache.use(mLeftFilter, mCurFilter, mRightFilter);
     }
 
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
         filterOutputSizeChanged(mFilter, width, height);
-        filterOutputSizeChanged(mLeftFilter, width, height);
-        filterOutputSizeChanged(mCurFilter, width, height);
-        filterOutputSizeChanged(mRightFilter, width, height);
+        mFilterCache.onOutputSizeChanged(width, height);
         GLES20.glViewport(0, 0, width, height);
         mOutputWidth = width;
         mOutputHeight = height;
 
-        createEmptyFBO(width, height);
+        if (mSplitTarget == null || mSplitTarget.width != width || mSplitTarget.height != height) {
+            mRenderTargetPool.release(mSplitTarget);
+            mSplitTarget = mRenderTargetPool.acquire(width, height);
+        }
+        releaseScaledTarget();
+        mPageCache.clear();
         adjustImageScaling();
 
         synchronized (mSurfaceChangedWaiter) {
@@ -143,137 +230,786 @@ class GPUImageRenderer implements GLSurfaceView.Renderer{
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        PagerTracer tracer = PagerTrace.begin(PagerTrace.DRAW_FRAME);
+        drawFrame();
+        PagerTrace.end(tracer);
+    }
+
+    private void drawFrame() {
+        long frameStart = System.nanoTime();
+        mMetrics.beginFrame(frameStart);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
         runAll(mRunOnDraw);
-        if (mFrameBuffers == null || mFrameBufferTextures == null){
+        if (mFiltersWarmed) {
+            mFiltersWarmed = false;
+            useFilters();
+        }
+        stepSettle();
+        updateScaling();
+        if (mSplitTarget == null){
+            mMetrics.endFrame(System.nanoTime(), isAnimating());
+            return;
+        }
+        long screenPixels = (long) mOutputWidth * mOutputHeight;
+        long imagePixels = (long) (screenPixels * mScrollGeometry.getImageCoverage());
+        Filter visibleFilter = getSingleVisibleFilter();
+        if (visibleFilter != null) {
+            //静止时只有一个滤镜可见，直接绘制到屏幕
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            drawImage(visibleFilter, mGLCubeBuffer, mGLTextureBuffer);
+            mLastFramePixels = imagePixels;
+            prerenderPages();
+        } else if (drawCachedSplit()) {
+            mLastFramePixels = screenPixels;
+        } else {
+            if (mScaling) {
+                mResolutionScaler.onFrameCost(mFrameCostTimer.takeCost());
+                mFrameCostTimer.begin();
+            }
+            float scale = mScaling ? mResolutionScaler.getScale() : 1;
+            if (scale < 1) {
+                drawScaledSplit(scale);
+                mLastFramePixels = (long) (imagePixels * scale * scale) + screenPixels;
+            } else {
+                releaseScaledTarget();
+                SplitMode splitMode = mSplitMode;
+                if (splitMode == SplitMode.SCISSOR) {
+                    drawScissorSplit(0, mOutputWidth, mOutputHeight, mScrollX);
+                } else {
+                    drawSplit();
+                }
+                mLastFramePixels = splitMode.getFillPixels(screenPixels, imagePixels);
+            }
+            if (mScaling) {
+                mFrameCostTimer.end(System.nanoTime() - frameStart);
+            }
+        }
+
+        runAll(mRunOnDrawEnd);
+        if (mSurfaceTexture != null) {
+            mSurfaceTexture.updateTexImage();
+        }
+        if (mExporter.hasWork()) {
+            stepExport();
+        }
+        if (mProfiling) {
+            mProfiler.collect();
+        }
+        mMetrics.endFrame(System.nanoTime(), isAnimating());
+    }
+
+    /**
+     * @return 回弹或导出还在进行，已由渲染线程请求下一帧
+     */
+    private boolean isAnimating() {
+        return mSettle.isRunning() || mExporter.hasWork();
+    }
+
+    /**
+     * 每帧导出一个滤镜，还没完成时请求下一帧
+     */
+    private void stepExport() {
+        boolean more = mExporter.step();
+        GLES20.glViewport(0, 0, mOutputWidth, mOutputHeight);
+        if (more && mRenderRequester != null) {
+            mRenderRequester.run();
+        }
+    }
+
+    private final FilterExporter.Drawer mExportDrawer = new FilterExporter.Drawer() {
+        @Override
+        public boolean getExportSize(int[] size) {
+            ImageTexture image = mImageTexture;
+            if (image == null) {
+                return false;
+            }
+            int width = image.width;
+            int height = image.height;
+            if (mRotation == Rotation.ROTATION_270 || mRotation == Rotation.ROTATION_90) {
+                width = image.height;
+                height = image.width;
+            }
+            //分块的大图不能整张渲染到一个FBO，等比缩小到纹理尺寸上限
+            int maxSize = ImageTexture.getMaxTextureSize();
+            if (width > maxSize || height > maxSize) {
+                float fit = (float) maxSize / Math.max(width, height);
+                width = Math.max(1, Math.min(maxSize, Math.round(width * fit)));
+                height = Math.max(1, Math.min(maxSize, Math.round(height * fit)));
+            }
+            size[0] = width;
+            size[1] = height;
+            return true;
+        }
+
+        @Override
+        public boolean drawExport(Filter filter, int width, int height) {
+            //不在缓存中的滤镜临时初始化，用完销毁
+            boolean cached = filter == mFilter || mFilterCache.contains(filter);
+            if (!cached) {
+                int state = mFilterPrewarmer.claim(filter);
+                if (state == FilterPrewarmer.CLAIM_WARMING) {
+                    return false;
+                }
+                boolean prewarmed = state == FilterPrewarmer.CLAIM_READY;
+                if (!prewarmed) {
+                    filter.init();
+                }
+                mMetrics.onFilterInit(prewarmed);
+            }
+            TextureRotationUtil.getRotation(mRotation, mFlipHorizontal, mFlipVertical, mExportTextureCords);
+            mGLExportTextureBuffer.put(mExportTextureCords).position(0);
+            filter.onOutputSizeChanged(width, height);
+            drawImage(filter, mGLExportCubeBuffer, mGLExportTextureBuffer);
+            if (cached) {
+                filter.onOutputSizeChanged(mOutputWidth, mOutputHeight);
+            } else {
+                filter.destroy();
+                mMetrics.onFilterDestroy();
+                mFilterPrewarmer.release(filter);
+            }
+            return true;
+        }
+    };
+
+    /**
+     * 离屏导出当前图片分别经过每个滤镜的结果
+     * @param asBitmap true 结果为Bitmap，false 为direct ByteBuffer
+     */
+    void exportFilters(final List<Filter> filters, final boolean asBitmap, final ExportCallback callback) {
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                mExporter.add(filters, asBitmap, callback);
+            }
+        });
+    }
+
+    private void drawFilter(Filter filter, int textureId, FloatBuffer cubeBuffer, FloatBuffer textureBuffer) {
+        PagerTracer tracer = PagerTrace.begin(PagerTrace.DRAW_FILTER);
+        if (mProfiling) {
+            mProfiler.begin(filter);
+            filter.onDraw(textureId, cubeBuffer, textureBuffer);
+            mProfiler.end();
+        } else {
+            filter.onDraw(textureId, cubeBuffer, textureBuffer);
+        }
+        mMetrics.onDraw();
+        PagerTrace.end(tracer);
+    }
+
+    /**
+     * 用滤镜绘制图片，分块的图片逐块绘制
+     */
+    private void drawImage(Filter filter, FloatBuffer cubeBuffer, FloatBuffer textureBuffer) {
+        drawImage(filter, mImageTexture, cubeBuffer, textureBuffer);
+    }
+
+    private void drawImage(Filter filter, ImageTexture image, FloatBuffer cubeBuffer, FloatBuffer textureBuffer) {
+        if (image == null) {
+            drawFilter(filter, NO_IMAGE, cubeBuffer, textureBuffer);
+            return;
+        }
+        if (image.isSingle()) {
+            drawFilter(filter, image.getTextureId(), cubeBuffer, textureBuffer);
+            return;
+        }
+        for (int i = 0; i < image.getTileCount(); i++) {
+            if (image.computeTile(i, cubeBuffer, textureBuffer)) {
+                drawFilter(filter, image.getTileTextureId(i),
+                        image.getTileCubeBuffer(), image.getTileTextureBuffer());
+            }
+        }
+    }
+
+    /**
+     * @return 可以绘制的滤镜：还在后台预热（没有进入缓存）的滤镜先用默认滤镜代替
+     */
+    private Filter drawable(Filter filter) {
+        return filter != null && (filter == mFilter || mFilterCache.contains(filter)) ? filter : mFilter;
+    }
+
+    /**
+     * 分割线在屏幕边缘时，整屏只显示一个滤镜
+     * @return 可见的滤镜，两个滤镜都可见时返回null
+     */
+    private Filter getSingleVisibleFilter() {
+        Filter filter;
+        if (mScrollX <= 0) {
+            filter = mDragToLeft ? mCurFilter : mRightFilter;
+        } else if (mScrollX >= mOutputWidth) {
+            filter = mDragToLeft ? mLeftFilter : mCurFilter;
+        } else {
+            return null;
+        }
+        return drawable(filter);
+    }
+
+    /**
+     * 静止时每帧预先渲染一个还没缓存的页面，拖动开始时已经全部缓存
+     */
+    private void prerenderPages() {
+        if (!mPageCacheEnabled || mScrollState != FilterPagerLayout.SCROLL_STATE_IDLE || mSettle.isRunning()) {
+            return;
+        }
+        Filter cur = drawable(mCurFilter);
+        Filter left = drawable(mLeftFilter);
+        Filter right = drawable(mRightFilter);
+        Filter missing = mPageCache.get(cur) == null ? cur
+                : mPageCache.get(left) == null ? left
+                : mPageCache.get(right) == null ? right : null;
+        if (missing == null || renderPage(missing) == null) {
+            return;
+        }
+        if (mRenderRequester != null) {
+            mRenderRequester.run();
+        }
+    }
+
+    /**
+     * 两个页面都已缓存（或可以缓存）时，按分割位置贴出缓存的画面
+     * @return false 没有开启或超出预算，需要按滤镜绘制
+     */
+    private boolean drawCachedSplit() {
+        if (!mPageCacheEnabled) {
+            return false;
+        }
+        RenderTargetPool.RenderTarget left = getCachedPage(getSplitLeftFilter());
+        RenderTargetPool.RenderTarget right = left != null ? getCachedPage(getSplitRightFilter()) : null;
+        if (right == null) {
+            return false;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        drawFilter(mFilter, left.textureId, mGLLeftNormalCubeBuffer, mGLLeftFlipTextureBuffer);
+        drawFilter(mFilter, right.textureId, mGLRightNormalCubeBuffer, mGLRightFlipTextureBuffer);
+        return true;
+    }
+
+    private RenderTargetPool.RenderTarget getCachedPage(Filter filter) {
+        RenderTargetPool.RenderTarget target = mPageCache.get(filter);
+        return target != null ? target : renderPage(filter);
+    }
+
+    /**
+     * 把滤镜处理后的整屏画面渲染到页面缓存
+     * @return 超出预算时返回null
+     */
+    private RenderTargetPool.RenderTarget renderPage(Filter filter) {
+        RenderTargetPool.RenderTarget target = mPageCache.put(filter, mOutputWidth, mOutputHeight);
+        if (target == null) {
+            return null;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, target.framebufferId);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        drawImage(filter, mGLCubeBuffer, mGLTextureBuffer);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        return target;
+    }
+
+    private Filter getSplitLeftFilter() {
+        if (mDragToLeft) {//当前屏幕和左屏拖拽
+            return drawable(mLeftFilter);
+        }
+        return drawable(mCurFilter);
+    }
+
+    private Filter getSplitRightFilter() {
+        if (mDragToLeft) {
+            return drawable(mCurFilter);
+        }
+        //当前屏幕和右屏拖拽
+        return drawable(mRightFilter);
+    }
+
+    /**
+     * 每帧开始时检查是否处于动态分辨率的滑动中。停止滑动后立即释放缩小的渲染目标，
+     * 静止时只绘制单个滤镜，不会再经过分屏绘制
+     */
+    private void updateScaling() {
+        boolean scaling = mDynamicResolution && mScrollState != FilterPagerLayout.SCROLL_STATE_IDLE;
+        if (scaling == mScaling) {
             return;
         }
-        int previousTexture = mGLTextureId;
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffers[0]);
+        mScaling = scaling;
+        if (scaling) {
+            if (mFrameCostTimer == null) {
+                mFrameCostTimer = FrameCostTimer.create();
+            }
+        } else {
+            releaseScaledTarget();
+            mResolutionScaler.reset();
+            if (mFrameCostTimer != null) {
+                mFrameCostTimer.reset();
+            }
+        }
+    }
+
+    /**
+     * 以较低分辨率绘制分割画面到FBO，再放大绘制到屏幕
+     * @param scale 分辨率缩放比例
+     */
+    private void drawScaledSplit(float scale) {
+        int width = Math.max(1, Math.round(mOutputWidth * scale));
+        int height = Math.max(1, Math.round(mOutputHeight * scale));
+        if (mScaledTarget == null || mScaledTarget.width != width || mScaledTarget.height != height) {
+            releaseScaledTarget();
+            mScaledTarget = mRenderTargetPool.acquire(width, height);
+        }
+        GLES20.glViewport(0, 0, width, height);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mScaledTarget.framebufferId);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        drawScissorSplit(mScaledTarget.framebufferId, width, height, Math.round(mScrollX * scale));
+        GLES20.glViewport(0, 0, mOutputWidth, mOutputHeight);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        drawFilter(mFilter, mScaledTarget.textureId, mGLFullCubeBuffer, mGLFullFlipTextureBuffer);
+    }
+
+    private void releaseScaledTarget() {
+        if (mScaledTarget != null) {
+            mRenderTargetPool.release(mScaledTarget);
+            mScaledTarget = null;
+        }
+    }
+
+    /**
+     * 两个滤镜各显示一部分：用glScissor限制绘制区域，两个滤镜分别直接绘制
+     * @param framebuffer 绘制目标，0为屏幕
+     * @param width 绘制目标宽
+     * @param height 绘制目标高
+     * @param splitX 分割线位置
+     */
+    private void drawScissorSplit(int framebuffer, int width, int height, int splitX) {
+        Filter leftFilter = getSplitLeftFilter();
+        Filter rightFilter = getSplitRightFilter();
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+        GLES20.glScissor(0, 0, splitX, height);
+        drawImage(leftFilter, mGLCubeBuffer, mGLTextureBuffer);
+        GLES20.glScissor(splitX, 0, width - splitX, height);
+        drawImage(rightFilter, mGLCubeBuffer, mGLTextureBuffer);
+        GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+    }
+
+    /**
+     * 两个滤镜各显示一部分：先在FBO中左右分别绘制，再从FBO分别绘制到屏幕
+     */
+    private void drawSplit() {
+        int splitTexture = mSplitTarget.textureId;
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mSplitTarget.framebufferId);
         GLES20.glClearColor(0, 0, 0, 0);
         if (DEBUG) Log.d(TAG, "onDrawFrame " + (mDragToLeft ? "drag out left screen" : "drag out right screen"));
         if (mDragToLeft) {//当前屏幕和左屏拖拽
             if (mLeftFilter != null) {
-                mLeftFilter.onDraw(previousTexture, mGLLeftCubeBuffer, mGLLeftTextureBuffer);
+                drawImage(drawable(mLeftFilter), mGLLeftCubeBuffer, mGLLeftTextureBuffer);
             } else {
                 if (DEBUG) Log.w(TAG, "left filter is null");
-                mFilter.onDraw(previousTexture, mGLLeftCubeBuffer, mGLLeftTextureBuffer);
+                drawImage(mFilter, mGLLeftCubeBuffer, mGLLeftTextureBuffer);
             }
-            mFilter.onDraw(previousTexture, mGLRightCubeBuffer, mGLRightTextureBuffer);
+            drawImage(mFilter, mGLRightCubeBuffer, mGLRightTextureBuffer);
 
             GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-            previousTexture = mFrameBufferTextures[0];
 
-            mFilter.onDraw(previousTexture, mGLLeftNormalCubeBuffer, mGLLeftFlipTextureBuffer);
-            mCurFilter.onDraw(previousTexture, mGLRightNormalCubeBuffer, mGLRightFlipTextureBuffer);
+            drawFilter(mFilter, splitTexture, mGLLeftNormalCubeBuffer, mGLLeftFlipTextureBuffer);
+            drawFilter(drawable(mCurFilter), splitTexture, mGLRightNormalCubeBuffer, mGLRightFlipTextureBuffer);
         } else {//当前屏幕和右屏拖拽
-            mCurFilter.onDraw(previousTexture, mGLLeftCubeBuffer, mGLLeftTextureBuffer);
-            mFilter.onDraw(previousTexture, mGLRightCubeBuffer, mGLRightTextureBuffer);
+            drawImage(drawable(mCurFilter), mGLLeftCubeBuffer, mGLLeftTextureBuffer);
+            drawImage(mFilter, mGLRightCubeBuffer, mGLRightTextureBuffer);
 
             GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-            previousTexture = mFrameBufferTextures[0];
 
-            mFilter.onDraw(previousTexture, mGLLeftNormalCubeBuffer, mGLLeftFlipTextureBuffer);
+            drawFilter(mFilter, splitTexture, mGLLeftNormalCubeBuffer, mGLLeftFlipTextureBuffer);
             if (mRightFilter != null) {
-                mRightFilter.onDraw(previousTexture, mGLRightNormalCubeBuffer, mGLRightFlipTextureBuffer);
+                drawFilter(drawable(mRightFilter), splitTexture, mGLRightNormalCubeBuffer, mGLRightFlipTextureBuffer);
             } else {
                 if (DEBUG) Log.w(TAG, "right filter is null");
-                mFilter.onDraw(previousTexture, mGLRightNormalCubeBuffer, mGLRightFlipTextureBuffer);
+                drawFilter(mFilter, splitTexture, mGLRightNormalCubeBuffer, mGLRightFlipTextureBuffer);
             }
         }
+    }
 
-        runAll(mRunOnDrawEnd);
-        if (mSurfaceTexture != null) {
-            mSurfaceTexture.updateTexImage();
+    /**
+     * 设置滑动位置，一帧内多次设置只有最后一次生效
+     */
+    void setScrollX(final Filter targetFilter, final int scrollX, final boolean dragToLeft) {
+        if (!mRunOnDraw.postScroll(targetFilter, scrollX, dragToLeft)) {
+            if (DEBUG) Log.v(TAG, "setScroll abandoned");
         }
     }
 
-    void setScrollX(final Filter targetFilter, final int scrollX, final boolean dragToLeft) {
+    /**
+     * 设置左中右滤镜，一帧内多次设置只有最后一次生效
+     */
+    void setFilter(final Filter leftFilter, final Filter curFilter, final Filter rightFilter) {
+        mRunOnDraw.postFilters(leftFilter, curFilter, rightFilter);
+    }
+
+    /**
+     * 设置请求重绘的方法，渲染线程动画需要连续绘制
+     */
+    void setRenderRequester(Runnable requester) {
+        mRenderRequester = requester;
+    }
+
+    /**
+     * 由渲染线程按帧时间执行滑动动画，动画过程中不需要UI线程参与
+     * @param cur 动画过程中的当前滤镜，滤镜改变时动画停止
+     * @param curOffsetPixel 当前页的偏移
+     * @param width 页宽
+     * @param settle 滑动动画
+     * @param onFinished 动画结束后在主线程执行
+     */
+    void startSettle(final Filter cur, final float curOffsetPixel, final int width,
+                     final SettleScroller settle, final Runnable onFinished) {
         runOnDraw(new Runnable() {
             @Override
             public void run() {
-                if (mCurFilter != targetFilter){
-                    if (DEBUG) Log.v(TAG, "setScroll abandoned");
-                    return;
-                }
-                if (DEBUG) Log.v(TAG, "setScroll " + scrollX + " dragToLeft " + dragToLeft);
-                GPUImageRenderer.this.mScrollX = scrollX;
-                GPUImageRenderer.this.mDragToLeft = dragToLeft;
-                adjustImageScaling();
+                mSettle.start(cur, curOffsetPixel, width, settle, onFinished);
             }
         });
     }
 
-    void setFilter(final Filter leftFilter, final Filter curFilter, final Filter rightFilter) {
-        if (leftFilter != mLeftFilter  || curFilter != mCurFilter || rightFilter != mRightFilter){
-            runOnDraw(new Runnable() {
-                @Override
-                public void run() {
-                    final Filter oldLeftFilter = mLeftFilter;
-                    final Filter oldCurFilter = mCurFilter;
-                    final Filter oldRightFilter = mRightFilter;
-                    mLeftFilter = leftFilter;
-                    mCurFilter = curFilter;
-                    mRightFilter = rightFilter;
-                    filterDestroy(oldLeftFilter);
-                    filterDestroy(oldCurFilter);
-                    filterDestroy(oldRightFilter);
-                    filterInit(mLeftFilter);
-                    filterInit(mCurFilter);
-                    filterInit(mRightFilter);
-                    filterOutputSizeChanged(mLeftFilter, mOutputWidth, mOutputHeight);
-                    filterOutputSizeChanged(mCurFilter, mOutputWidth, mOutputHeight);
-                    filterOutputSizeChanged(mRightFilter, mOutputWidth, mOutputHeight);
-                    if (DEBUG) Log.d(TAG, (mLeftFilter != null ? mLeftFilter.toString() : "null") + " - " +
-                            (mCurFilter != null ? mCurFilter.toString() : "null") + " - " +
-                            (mRightFilter != null ? mRightFilter.toString() : "null"));
-                }
-            });
+    void cancelSettle() {
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                mSettle.cancel();
+            }
+        });
+    }
+
+    private void stepSettle() {
+        if (!mSettle.isRunning()) {
+            return;
+        }
+        PagerTracer tracer = PagerTrace.begin(PagerTrace.SETTLE_STEP);
+        boolean running = mSettle.step(mCurFilter);
+        if (mSettle.isAbandoned()) {
+            //滤镜已改变，交还给UI线程结束动画
+            if (DEBUG) Log.v(TAG, "settle abandoned");
+        } else {
+            mDragToLeft = mSettle.isDragToLeft();
+            mScrollX = mSettle.getScrollX();
+            adjustImageScaling();
         }
+        if (!running) {
+            mMainHandler.post(mSettle.finish());
+        } else if (mRenderRequester != null) {
+            mRenderRequester.run();
+        }
+        PagerTrace.end(tracer);
+    }
+
+    /**
+     * 初始化左中右滤镜，只保留它们的页面缓存。还在后台预热的滤镜暂时用默认滤镜绘制
+     */
+    private void useFilters() {
+        //窗口内已缓存的滤镜只调整顺序，不再重新编译
+        mFilterCache.use(mLeftFilter, mCurFilter, mRightFilter);
+        mPageCache.retain(drawable(mLeftFilter), drawable(mCurFilter), drawable(mRightFilter));
+    }
+
+    private final RenderCommandQueue.Target mCommandTarget = new RenderCommandQueue.Target() {
+        @Override
+        public void setFilters(Filter left, Filter cur, Filter right) {
+            mLeftFilter = left;
+            mCurFilter = cur;
+            mRightFilter = right;
+            useFilters();
+            if (DEBUG) Log.d(TAG, (mLeftFilter != null ? mLeftFilter.toString() : "null") + " - " +
+                    (mCurFilter != null ? mCurFilter.toString() : "null") + " - " +
+                    (mRightFilter != null ? mRightFilter.toString() : "null"));
+        }
+
+        @Override
+        public void setScroll(int scrollX, boolean dragToLeft) {
+            if (DEBUG) Log.v(TAG, "setScroll " + scrollX + " dragToLeft " + dragToLeft);
+            mScrollX = scrollX;
+            mDragToLeft = dragToLeft;
+            adjustImageScaling();
+        }
+    };
+
+    /**
+     * 设置已初始化滤镜的缓存个数
+     * @param maxSize 最多保留的已初始化滤镜个数，最小为3
+     */
+    void setFilterCacheSize(final int maxSize) {
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                mFilterCacheSize = maxSize;
+                mFilterCache.setMaxSize(Math.max(mFilterCacheSize, mPrewarmSize),
+                        mLeftFilter, mCurFilter, mRightFilter);
+            }
+        });
+    }
+
+    /**
+     * 在后台线程预先初始化即将显示的滤镜，缓存个数至少能容纳全部预热的滤镜
+     * @param filters 按优先级从高到低排列的滤镜
+     */
+    void prewarmFilters(final List<Filter> filters) {
+        mFilterPrewarmer.prewarm(filters);
+        final int prewarmSize = filters.size();
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                mPrewarmSize = prewarmSize;
+                mFilterCache.setMaxSize(Math.max(mFilterCacheSize, mPrewarmSize),
+                        mLeftFilter, mCurFilter, mRightFilter);
+            }
+        });
+    }
+
+    FilterPrewarmer getFilterPrewarmer() {
+        return mFilterPrewarmer;
+    }
+
+    /**
+     * 销毁所有滤镜和离屏渲染目标，控件不再使用时调用
+     */
+    void release() {
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                mFilterCache.evictAll();
+                filterDestroy(mFilter);
+                mProfiler.release();
+                if (mFrameCostTimer != null) {
+                    mFrameCostTimer.release();
+                    mFrameCostTimer = null;
+                }
+                mScaling = false;
+                mSplitTarget = null;
+                mScaledTarget = null;
+                mPageCache.invalidate();
+                mExporter.cancelAll();
+                mRenderTargetPool.clear();
+            }
+        });
+    }
+
+    /**
+     * 删除空闲的离屏渲染目标，内存不足时调用
+     */
+    void trimRenderTargets() {
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                mRenderTargetPool.trim();
+            }
+        });
+    }
+
+    /**
+     * @return 离屏渲染目标占用的显存字节数
+     */
+    long getRenderTargetBytes() {
+        return mRenderTargetPool.getAllocatedBytes();
     }
 
     void deleteImage() {
+        final int sequence = mImageSequence.incrementAndGet();
         runOnDraw(new Runnable() {
 
             @Override
             public void run() {
-                GLES20.glDeleteTextures(1, new int[]{ mGLTextureId }, 0);
-                mGLTextureId = NO_IMAGE;
+                mAppliedSequence = sequence;
+                if (mImageTexture != null) {
+                    mImageTexture.delete();
+                    mImageTexture = null;
+                }
+                mPageCache.clear();
             }
         });
     }
 
-    void setImageBitmap(final Bitmap bitmap, final boolean recycle) {
+    /**
+     * 在之前提交的上传执行完之后把不再使用的Bitmap放回池中
+     */
+    void recycleBitmap(final Bitmap bitmap, final BitmapPool pool) {
+        runAfterUploads(new Runnable() {
+            @Override
+            public void run() {
+                pool.put(bitmap);
+            }
+        });
+    }
+
+    void clearBitmapPool(final BitmapPool pool) {
+        runAfterUploads(new Runnable() {
+            @Override
+            public void run() {
+                pool.clear();
+            }
+        });
+    }
+
+    /**
+     * 在GL线程和后台上传线程中之前提交的上传都结束后执行
+     */
+    private void runAfterUploads(final Runnable runnable) {
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                if (!mTextureUploader.runAfterUploads(runnable)) {
+                    runnable.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * 是否在后台共享上下文中上传图片纹理，默认开启
+     */
+    void setAsyncUploadEnabled(boolean enabled) {
+        mAsyncUpload = enabled;
+    }
+
+    /**
+     * @param orientation 图片方向，与纹理同时生效，只改变贴图坐标
+     */
+    void setImageBitmap(final Bitmap bitmap, final ImageOrientation orientation, final boolean recycle) {
         if (bitmap == null) {
             return;
         }
+        final int sequence = mImageSequence.incrementAndGet();
+        if (mAsyncUpload && mTextureUploader.upload(bitmap, orientation, recycle, sequence, mUploadCallback)) {
+            return;
+        }
+        uploadOnDraw(bitmap, orientation, recycle, sequence);
+    }
+
+    /**
+     * 在GL线程中同步上传
+     */
+    private void uploadOnDraw(final Bitmap bitmap, final ImageOrientation orientation, final boolean recycle,
+                              final int sequence) {
         runOnDraw(new Runnable() {
 
             @Override
             public void run() {
-                Bitmap resizedBitmap = null;
-                if (bitmap.getWidth() % 2 == 1) {
-                    resizedBitmap = Bitmap.createBitmap(bitmap.getWidth() + 1, bitmap.getHeight(),
-                            Bitmap.Config.ARGB_8888);
-                    Canvas can = new Canvas(resizedBitmap);
-                    can.drawARGB(0x00, 0x00, 0x00, 0x00);
-                    can.drawBitmap(bitmap, 0, 0, null);
+                if (sequence <= mAppliedSequence) {
+                    if (recycle) {
+                        bitmap.recycle();
+                    }
+                    return;
                 }
+                mAppliedSequence = sequence;
+                //尺寸相同且不分块时用texSubImage2D覆盖，否则（如预览图换成原图）重新分配纹理
+                PagerTracer tracer = PagerTrace.begin(PagerTrace.UPLOAD_TEXTURE);
+                mImageTexture = downscaleImage(ImageTexture.upload(bitmap, mImageTexture, recycle),
+                        orientation.rotation);
+                PagerTrace.end(tracer);
+                mImageWidth = mImageTexture.width;
+                mImageHeight = mImageTexture.height;
+                mPageCache.clear();
+                setRotation(orientation.rotation, orientation.flipHorizontal, orientation.flipVertical);
+            }
+        });
+    }
 
-                mGLTextureId = OpenGlUtils.loadTexture(
-                        resizedBitmap != null ? resizedBitmap : bitmap, mGLTextureId, recycle);
-                if (resizedBitmap != null) {
-                    resizedBitmap.recycle();
+    private final TextureUploader.Callback mUploadCallback = new TextureUploader.Callback() {
+        @Override
+        public void onUploaded(final ImageTexture texture, final ImageOrientation orientation,
+                               final int sequence, final int generation) {
+            runOnDraw(new Runnable() {
+                @Override
+                public void run() {
+                    swapUploadedTexture(texture, orientation, sequence, generation);
                 }
-                mImageWidth = bitmap.getWidth();
-                mImageHeight = bitmap.getHeight();
-                adjustImageScaling();
+            });
+            if (mRenderRequester != null) {
+                mRenderRequester.run();
             }
-        });
+        }
+
+        @Override
+        public void onDropped(Bitmap bitmap, ImageOrientation orientation, boolean recycle, int sequence) {
+            uploadOnDraw(bitmap, orientation, recycle, sequence);
+        }
+    };
+
+    /**
+     * 换上后台上传完成的纹理，已被更新的设置或删除取代时丢弃
+     */
+    private void swapUploadedTexture(ImageTexture texture, ImageOrientation orientation, int sequence,
+                                     int generation) {
+        if (generation != mTextureUploader.getGeneration()) {
+            //上下文已重建，纹理随旧上下文失效
+            return;
+        }
+        if (sequence <= mAppliedSequence) {
+            texture.delete();
+            return;
+        }
+        mAppliedSequence = sequence;
+        if (mImageTexture != null) {
+            mImageTexture.delete();
+        }
+        mImageTexture = downscaleImage(texture, orientation.rotation);
+        mImageWidth = mImageTexture.width;
+        mImageHeight = mImageTexture.height;
+        mPageCache.clear();
+        setRotation(orientation.rotation, orientation.flipHorizontal, orientation.flipVertical);
+    }
+
+    /**
+     * 图片比显示尺寸大很多时，在GPU上缩小到显示尺寸并删除原纹理，之后每帧只采样缩小后的纹理。
+     * 每次最多缩小一半，逐级缩小相当于盒式滤波，避免一次大比例缩小产生锯齿
+     * @param rotation 图片显示时的旋转
+     * @return 缩小后的图片，不需要缩小时返回image
+     */
+    private ImageTexture downscaleImage(ImageTexture image, Rotation rotation) {
+        if (!mDownscaleOnUpload || mOutputWidth <= 0 || mOutputHeight <= 0) {
+            return image;
+        }
+        int outputWidth = mOutputWidth;
+        int outputHeight = mOutputHeight;
+        if (rotation == Rotation.ROTATION_270 || rotation == Rotation.ROTATION_90) {
+            outputWidth = mOutputHeight;
+            outputHeight = mOutputWidth;
+        }
+        //按覆盖控件的比例缩小，CENTER_CROP和FIT都不会低于显示分辨率
+        float scale = Math.max((float) outputWidth / image.width, (float) outputHeight / image.height);
+        if (scale > DOWNSCALE_MAX_SCALE) {
+            return image;
+        }
+        int targetWidth = Math.max(1, (int) Math.ceil(image.width * scale));
+        int targetHeight = Math.max(1, (int) Math.ceil(image.height * scale));
+        int[] framebuffer = new int[1];
+        GLES20.glGenFramebuffers(1, framebuffer, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer[0]);
+        int maxSize = ImageTexture.getMaxTextureSize();
+        ImageTexture source = image;
+        while (source.width > targetWidth || source.height > targetHeight) {
+            int width = Math.max(targetWidth, (source.width + 1) / 2);
+            int height = Math.max(targetHeight, (source.height + 1) / 2);
+            if (width > maxSize || height > maxSize) {
+                //分块的大图缩小一半后仍可能超过纹理尺寸上限
+                float fit = (float) maxSize / Math.max(width, height);
+                width = Math.max(targetWidth, (int) (width * fit));
+                height = Math.max(targetHeight, (int) (height * fit));
+            }
+            ImageTexture target = ImageTexture.allocate(width, height);
+            GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                    GLES20.GL_TEXTURE_2D, target.getTextureId(), 0);
+            GLES20.glViewport(0, 0, width, height);
+            //上下翻转写入，结果与上传的Bitmap方向一致
+            drawImage(mFilter, source, mGLFullCubeBuffer, mGLFullFlipTextureBuffer);
+            source.delete();
+            source = target;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glDeleteFramebuffers(1, framebuffer, 0);
+        GLES20.glViewport(0, 0, mOutputWidth, mOutputHeight);
+        return source;
     }
 
     private void filterInit(Filter filter) {
-        if (filter != null) { filter.init(); }
+        if (filter != null) {
+            filter.init();
+            mMetrics.onFilterInit(false);
+        }
     }
 
     private void filterOutputSizeChanged(Filter filter, int width, int height) {
@@ -283,192 +1019,129 @@ class GPUImageRenderer implements GLSurfaceView.Renderer{
     private void filterDestroy(Filter filter) {
         if (filter != null) {
             filter.destroy();
+            mMetrics.onFilterDestroy();
         }
     }
 
-    private void createEmptyFBO(int width, int height) {
-        mFrameBuffers = new int[1];
-        mFrameBufferTextures = new int[1];
-        GLES20.glGenFramebuffers(1, mFrameBuffers, 0);
-        GLES20.glGenTextures(1, mFrameBufferTextures, 0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mFrameBufferTextures[0]);
-        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
-                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
-        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
-                GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
-                GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
-                GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
-                GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffers[0]);
-        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
-                GLES20.GL_TEXTURE_2D, mFrameBufferTextures[0], 0);
-
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-    }
-
+    /**
+     * 根据缩放方式和滑动偏移计算顶点、贴图坐标，每次滑动都会调用，不能有任何堆内存分配
+     */
     private void adjustImageScaling() {
-        float outputWidth = mOutputWidth;
-        float outputHeight = mOutputHeight;
-        if (mRotation == Rotation.ROTATION_270 || mRotation == Rotation.ROTATION_90) {
-            outputWidth = mOutputHeight;
-            outputHeight = mOutputWidth;
-        }
-
-        //控件宽度是图片宽度的几倍
-        float ratio1 = outputWidth / mImageWidth;
-        float ratio2 = outputHeight / mImageHeight;
-        float ratioMax = Math.max(ratio1, ratio2);
-        //根据图片最小边长放大到控件边长
-        int imageWidthNew = Math.round(mImageWidth * ratioMax);
-        int imageHeightNew = Math.round(mImageHeight * ratioMax);
-
-        //放大后的图片宽度是控件宽度的几倍
-        float ratioWidth = imageWidthNew / outputWidth;
-        float ratioHeight = imageHeightNew / outputHeight;
-
-        float[] scaleCube = CUBE;
-        float[] scaleTextureCords = TextureRotationUtil.getRotation(mRotation, mFlipHorizontal, mFlipVertical);
-        //处理缩放
-        if (mScaleType == ScaleType.CENTER_CROP) {
-            float distHorizontal = (1 - 1 / ratioWidth) / 2;
-            float distVertical = (1 - 1 / ratioHeight) / 2;
-            scaleTextureCords = new float[]{
-                    addDistance(scaleTextureCords[0], distHorizontal), addDistance(scaleTextureCords[1], distVertical),
-                    addDistance(scaleTextureCords[2], distHorizontal), addDistance(scaleTextureCords[3], distVertical),
-                    addDistance(scaleTextureCords[4], distHorizontal), addDistance(scaleTextureCords[5], distVertical),
-                    addDistance(scaleTextureCords[6], distHorizontal), addDistance(scaleTextureCords[7], distVertical),
-            };
-        } else {
-            scaleCube = new float[]{
-                    CUBE[0] / ratioHeight, CUBE[1] / ratioWidth,
-                    CUBE[2] / ratioHeight, CUBE[3] / ratioWidth,
-                    CUBE[4] / ratioHeight, CUBE[5] / ratioWidth,
-                    CUBE[6] / ratioHeight, CUBE[7] / ratioWidth,
-            };
-        }
-
-        float offset = mScrollX * 1.0f / mOutputWidth;
-
-        float[] leftScaleCube = adjustLeftCube(scaleCube, offset);
-        float[] rightScaleCube = adjustRightCube(scaleCube, offset);
-
-        float[] leftScaleTexture = adjustLeftTexture(scaleTextureCords, offset);
-        float[] rightScaleTexture = adjustRightTexture(scaleTextureCords, offset);
-
-        float[] textureCords = TextureRotationUtil.getRotation(mRotation, mFlipHorizontal, mFlipVertical);
-        float[] leftNormalTexture = adjustLeftTexture(textureCords, offset);
-        float[] rightNormalTexture = adjustRightTexture(textureCords, offset);
-
-        float[] leftNormalCube = adjustLeftCube(CUBE, offset);
-        float[] rightNormalCube = adjustRightCube(CUBE, offset);
-        float[] leftFlipTexture = {
-                leftNormalTexture[0], flip(leftNormalTexture[1]),
-                leftNormalTexture[2], flip(leftNormalTexture[3]),
-                leftNormalTexture[4], flip(leftNormalTexture[5]),
-                leftNormalTexture[6], flip(leftNormalTexture[7]),
-        };
-        float[] rightFlipTexture = {
-                rightNormalTexture[0], flip(rightNormalTexture[1]),
-                rightNormalTexture[2], flip(rightNormalTexture[3]),
-                rightNormalTexture[4], flip(rightNormalTexture[5]),
-                rightNormalTexture[6], flip(rightNormalTexture[7]),
-        };
+        mScrollGeometry.update(mOutputWidth, mOutputHeight, mImageWidth, mImageHeight,
+                mRotation, mFlipHorizontal, mFlipVertical, mScaleType, mScrollX);
+    }
 
-        mGLLeftCubeBuffer.clear();
-        mGLLeftTextureBuffer.clear();
-        mGLRightCubeBuffer.clear();
-        mGLRightTextureBuffer.clear();
+    /**
+     * 是否缓存当前页和相邻页的渲染结果，拖动时只贴图
+     * @param maxBytes 缓存的显存预算，放不下两页时按滤镜绘制
+     */
+    void setPageCache(final boolean enabled, final long maxBytes) {
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                mPageCacheEnabled = enabled;
+                mPageCache.setMaxBytes(enabled ? maxBytes : 0);
+            }
+        });
+    }
 
-        mGLLeftCubeBuffer.put(leftScaleCube).position(0);
-        mGLLeftTextureBuffer.put(leftScaleTexture).position(0);
-        mGLRightCubeBuffer.put(rightScaleCube).position(0);
-        mGLRightTextureBuffer.put(rightScaleTexture).position(0);
+    /**
+     * 丢弃缓存的页面，滤镜参数变化后调用
+     */
+    void invalidatePageCache() {
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                mPageCache.clear();
+            }
+        });
+    }
 
-        mGLLeftNormalCubeBuffer.clear();
-        mGLRightNormalCubeBuffer.clear();
-        mGLLeftFlipTextureBuffer.clear();
-        mGLRightFlipTextureBuffer.clear();
+    /**
+     * 设置之后上传的图片是否在GPU上缩小到显示尺寸
+     */
+    void setDownscaleOnUpload(boolean enabled) {
+        mDownscaleOnUpload = enabled;
+    }
 
-        mGLLeftNormalCubeBuffer.put(leftNormalCube).position(0);
-        mGLRightNormalCubeBuffer.put(rightNormalCube).position(0);
-        mGLLeftFlipTextureBuffer.put(leftFlipTexture).position(0);
-        mGLRightFlipTextureBuffer.put(rightFlipTexture).position(0);
+    /**
+     * 滑动过程中是否根据每帧分屏绘制的实际开销降低分辨率绘制
+     */
+    void setDynamicResolution(boolean enabled, float minScale, float maxScale) {
+        mDynamicResolution = enabled;
+        final float min = minScale;
+        final float max = maxScale;
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                mResolutionScaler.setScaleRange(min, max);
+            }
+        });
     }
 
-    private static float flip(final float i) {
-        if (i == 0.0f) {
-            return 1.0f;
-        }
-        return 0.0f;
+    void setRefreshRate(final float refreshRate) {
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                mResolutionScaler.setRefreshRate(refreshRate);
+                mMetrics.setRefreshRate(refreshRate);
+            }
+        });
     }
 
     /**
-     * 调整左图顶点坐标
-     * @param cube 原顶点坐标
-     * @param offset 距离控件左侧偏移百分比
-     * @return 新顶点坐标
+     * @param scrollState {@link FilterPagerLayout#SCROLL_STATE_IDLE} 等
      */
-    private float[] adjustLeftCube(float[] cube, float offset) {
-        float cube2 = (cube[2] - cube[0]) * offset + cube[0];
-        float cube6 = (cube[6] - cube[4]) * offset + cube[4];
-        return new float[] {
-                cube[0], cube[1],
-                cube2  , cube[3],
-                cube[4], cube[5],
-                cube6  , cube[7],
-        };
+    void setScrollState(int scrollState) {
+        mScrollState = scrollState;
+    }
+
+    void setSplitMode(SplitMode splitMode) {
+        mSplitMode = splitMode;
+    }
+
+    SplitMode getSplitMode() {
+        return mSplitMode;
     }
 
     /**
-     * 调整左图贴图选区坐标
-     * @param texture 原贴图选区坐标
-     * @param offset 距离控件左侧偏移百分比
-     * @return 新贴图选区坐标
+     * 统计每个滤镜绘制的GPU耗时
      */
-    private float[] adjustLeftTexture(float[] texture, float offset) {
-        float texture2 = (texture[2] - texture[0]) * offset + texture[0];
-        float texture6 = (texture[6] - texture[4]) * offset + texture[4];
-        return new float[] {
-                texture[0], texture[1],
-                texture2  , texture[3],
-                texture[4], texture[5],
-                texture6  , texture[7],
-        };
+    void setFilterProfiling(final boolean enabled) {
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                mProfiling = enabled;
+                if (!enabled) {
+                    mProfiler.release();
+                } else if (!mProfiler.hasTimingSource()) {
+                    mProfiler.setTimingSource(FilterProfiler.createTimingSource());
+                }
+            }
+        });
     }
 
-    private float[] adjustRightCube(float[] cube, float offset) {
-        float cube0 = (cube[2] - cube[0]) * offset + cube[0];
-        float cube4 = (cube[6] - cube[4]) * offset + cube[4];
-        return new float[] {
-                cube0, cube[1],
-                cube[2], cube[3],
-                cube4, cube[5],
-                cube[6], cube[7],
-        };
+    FilterProfiler getFilterProfiler() {
+        return mProfiler;
     }
 
-    private float[] adjustRightTexture(float[] texture, float offset) {
-        float texture0 = (texture[2] - texture[0]) * offset + texture[0];
-        float texture4 = (texture[6] - texture[4]) * offset + texture[4];
-        return new float[] {
-                texture0, texture[1],
-                texture[2]  , texture[3],
-                texture4, texture[5],
-                texture[6]  , texture[7],
-        };
+    /**
+     * @param reset 是否同时清空已统计的数据
+     */
+    FrameMetrics getFrameMetrics(boolean reset) {
+        return mMetrics.snapshot(reset);
     }
 
-    private float addDistance(float coordinate, float distance) {
-        return coordinate == 0.0f ? distance : 1 - distance;
+    /**
+     * @return 最近一帧填充的像素数（FBO和屏幕之和），用于比较不同绘制方式的开销
+     */
+    long getLastFramePixels() {
+        return mLastFramePixels;
     }
 
     void setScaleType(ScaleType scaleType) {
         mScaleType = scaleType;
+        invalidatePageCache();
     }
 
     /**
@@ -482,6 +1155,7 @@ class GPUImageRenderer implements GLSurfaceView.Renderer{
         mBackgroundRed = red;
         mBackgroundGreen = green;
         mBackgroundBlue = blue;
+        invalidatePageCache();
     }
 
     private void setRotation(final Rotation rotation) {
@@ -553,30 +1227,27 @@ class GPUImageRenderer implements GLSurfaceView.Renderer{
         };
     }
 
-    private void runAll(Queue<Runnable> queue) {
-        synchronized (queue) {
-            while (!queue.isEmpty()) {
-                queue.poll().run();
-            }
-        }
+    private void runAll(RenderCommandQueue queue) {
+        PagerTracer tracer = PagerTrace.begin(PagerTrace.DRAIN_QUEUE);
+        long start = System.nanoTime();
+        int commands = queue.drain(mCommandTarget);
+        mMetrics.onDrain(System.nanoTime() - start, commands, queue.takeCoalescedCount());
+        PagerTrace.end(tracer);
     }
 
     private void runOnDraw(final Runnable runnable) {
-        synchronized (mRunOnDraw) {
-            mRunOnDraw.add(runnable);
-        }
+        mRunOnDraw.post(runnable);
     }
 
     protected void runOnDrawEnd(final Runnable runnable) {
-        synchronized (mRunOnDrawEnd) {
-            mRunOnDrawEnd.add(runnable);
-        }
+        mRunOnDrawEnd.post(runnable);
     }
 
-    private static final float CUBE[] = {
-            -1.0f, -1.0f,       //左下
-            1.0f, -1.0f,        //右下
-            -1.0f, 1.0f,        //左上
-            1.0f, 1.0f,         //右上
+    //上下翻转的顶点，渲染到FBO后第0行是图片顶部
+    private static final float CUBE_FLIP_VERTICAL[] = {
+            -1.0f, 1.0f,
+            1.0f, 1.0f,
+            -1.0f, -1.0f,
+            1.0f, -1.0f,
     };
 }
@@ -0,0 +1,105 @@
+package com.mrq.library.gpufilterpager;
+
+/**
+ * Fixed-width bucket histogram used by {@link FrameMetrics}. Values above the last bucket
+ * are counted in it and reported through {@link #getMax()}.
+ */
+public final class Histogram {
+
+    private final long mBucketWidth;
+    private final long[] mBuckets;
+    private long mCount;
+    private long mSum;
+    private long mMin;
+    private long mMax;
+
+    /**
+     * @param bucketWidth 每个桶的宽度
+     * @param bucketCount 桶的个数，最后一个桶包括所有更大的值
+     */
+    Histogram(long bucketWidth, int bucketCount) {
+        mBucketWidth = bucketWidth;
+        mBuckets = new long[bucketCount];
+    }
+
+    void record(long value) {
+        int index = (int) Math.min(Math.max(value, 0) / mBucketWidth, mBuckets.length - 1);
+        mBuckets[index]++;
+        if (mCount == 0 || value < mMin) {
+            mMin = value;
+        }
+        if (mCount == 0 || value > mMax) {
+            mMax = value;
+        }
+        mCount++;
+        mSum += value;
+    }
+
+    void reset() {
+        for (int i = 0; i < mBuckets.length; i++) {
+            mBuckets[i] = 0;
+        }
+        mCount = 0;
+        mSum = 0;
+        mMin = 0;
+        mMax = 0;
+    }
+
+    Histogram copy() {
+        Histogram histogram = new Histogram(mBucketWidth, mBuckets.length);
+        System.arraycopy(mBuckets, 0, histogram.mBuckets, 0, mBuckets.length);
+        histogram.mCount = mCount;
+        histogram.mSum = mSum;
+        histogram.mMin = mMin;
+        histogram.mMax = mMax;
+        return histogram;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getSum() {
+        return mSum;
+    }
+
+    public long getMin() {
+        return mMin;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public double getMean() {
+        return mCount == 0 ? 0 : (double) mSum / mCount;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile, capped at
+     * {@link #getMax()}.
+     *
+     * @param percentile 0 - 100, e.g. 95 for p95
+     */
+    public long getPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.max(0, Math.min(percentile, 100)) / 100 * mCount);
+        long seen = 0;
+        for (int i = 0; i < mBuckets.length - 1; i++) {
+            seen += mBuckets[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min((i + 1) * mBucketWidth, mMax);
+            }
+        }
+        return mMax;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + mCount + " mean=" + Math.round(getMean())
+                + " p50=" + getPercentile(50) + " p95=" + getPercentile(95)
+                + " p99=" + getPercentile(99) + " max=" + mMax;
+    }
+}
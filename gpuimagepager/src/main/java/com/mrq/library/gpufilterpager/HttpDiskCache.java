@@ -0,0 +1,270 @@
+package com.mrq.library.gpufilterpager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 下载图片的磁盘缓存，只依赖java.net，可以在JVM上对本地HTTP服务测试。
+ * 每个URL保存为一个数据文件和一个记录ETag、Last-Modified的元数据文件，
+ * 再次访问时用If-None-Match/If-Modified-Since验证，返回304时直接使用缓存。
+ * 总大小超过上限时删除最久未访问的文件。可在任意线程调用。
+ * {@link #get} 返回的文件在调用 {@link #release} 之前不会被trim删除，读取完成后必须释放。
+ */
+class HttpDiskCache {
+
+    static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+    private static final String DATA_SUFFIX = ".img";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String KEY_ETAG = "ETag";
+    private static final String KEY_LAST_MODIFIED = "Last-Modified";
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final File mDirectory;
+    private volatile long mMaxBytes;
+    //正在读取的缓存文件名和读取者数量，trim时跳过
+    private final Map<String, Integer> mPinned = new HashMap<>();
+
+    HttpDiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 获取URL对应的本地文件，没有缓存时下载，有缓存时向服务器验证。
+     * 服务器不可用或返回错误时使用已有的缓存
+     * @return 缓存文件，调用 {@link #release} 之前不会被删除
+     */
+    File get(String url) throws IOException {
+        String name = hash(url);
+        File data = new File(mDirectory, name + DATA_SUFFIX);
+        //先占用再检查文件是否存在，避免其他线程的trim在验证期间删除
+        pin(name);
+        boolean success = false;
+        try {
+            fetch(url, name, data);
+            success = true;
+        } finally {
+            if (!success) {
+                unpin(name);
+            }
+        }
+        trim();
+        return data;
+    }
+
+    /**
+     * 读取完成，允许trim删除 {@link #get} 返回的文件
+     */
+    void release(File data) {
+        String fileName = data.getName();
+        unpin(fileName.substring(0, fileName.length() - DATA_SUFFIX.length()));
+    }
+
+    private void fetch(String url, String name, File data) throws IOException {
+        File meta = new File(mDirectory, name + META_SUFFIX);
+        Properties properties = data.exists() ? readMeta(meta) : null;
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            if (properties != null) {
+                String etag = properties.getProperty(KEY_ETAG);
+                String lastModified = properties.getProperty(KEY_LAST_MODIFIED);
+                if (etag != null) {
+                    connection.setRequestProperty("If-None-Match", etag);
+                }
+                if (lastModified != null) {
+                    connection.setRequestProperty("If-Modified-Since", lastModified);
+                }
+            }
+
+            int code;
+            try {
+                code = connection.getResponseCode();
+            } catch (IOException e) {
+                if (properties != null) {
+                    //离线时使用缓存
+                    touch(data);
+                    return;
+                }
+                throw e;
+            }
+            if (code == HttpURLConnection.HTTP_OK) {
+                download(connection, name, data);
+                writeMeta(meta, connection.getHeaderField(KEY_ETAG),
+                        connection.getHeaderField(KEY_LAST_MODIFIED));
+            } else if (properties != null) {
+                //304，或服务器错误时使用缓存
+                touch(data);
+            } else {
+                throw new IOException("HTTP " + code + " " + url);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trim();
+    }
+
+    /**
+     * 删除最久未访问的文件直到总大小不超过上限
+     */
+    synchronized void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> dataFiles = new ArrayList<>();
+        long size = 0;
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.endsWith(DATA_SUFFIX)) {
+                size += file.length();
+                if (!mPinned.containsKey(fileName.substring(0, fileName.length() - DATA_SUFFIX.length()))) {
+                    dataFiles.add(file);
+                }
+            }
+        }
+        File[] sorted = dataFiles.toArray(new File[dataFiles.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < sorted.length && size > mMaxBytes; i++) {
+            File data = sorted[i];
+            size -= data.length();
+            String name = data.getName();
+            data.delete();
+            new File(mDirectory, name.substring(0, name.length() - DATA_SUFFIX.length()) + META_SUFFIX).delete();
+        }
+    }
+
+    private synchronized void pin(String name) {
+        Integer count = mPinned.get(name);
+        mPinned.put(name, count == null ? 1 : count + 1);
+    }
+
+    private synchronized void unpin(String name) {
+        Integer count = mPinned.get(name);
+        if (count == null || count <= 1) {
+            mPinned.remove(name);
+        } else {
+            mPinned.put(name, count - 1);
+        }
+    }
+
+    private static void touch(File data) {
+        data.setLastModified(System.currentTimeMillis());
+    }
+
+    private void download(HttpURLConnection connection, String name, File data) throws IOException {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IOException("can not create " + mDirectory);
+        }
+        //先写入临时文件，完整下载后再替换，避免其他线程读到一半的文件
+        File temp = File.createTempFile(name, TEMP_SUFFIX, mDirectory);
+        InputStream inputStream = null;
+        OutputStream outputStream = null;
+        try {
+            inputStream = connection.getInputStream();
+            outputStream = new FileOutputStream(temp);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("download cancelled");
+                }
+                outputStream.write(buffer, 0, count);
+            }
+            outputStream.close();
+            outputStream = null;
+            if (!temp.renameTo(data)) {
+                data.delete();
+                if (!temp.renameTo(data)) {
+                    throw new IOException("can not rename " + temp);
+                }
+            }
+        } finally {
+            ImageDecoder.closeQuietly(inputStream);
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+            temp.delete();
+        }
+    }
+
+    private static Properties readMeta(File meta) {
+        Properties properties = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(meta);
+            properties.load(inputStream);
+        } catch (IOException e) {
+            //没有元数据时无条件重新下载
+            return null;
+        } finally {
+            ImageDecoder.closeQuietly(inputStream);
+        }
+        return properties;
+    }
+
+    private static void writeMeta(File meta, String etag, String lastModified) throws IOException {
+        Properties properties = new Properties();
+        if (etag != null) {
+            properties.setProperty(KEY_ETAG, etag);
+        }
+        if (lastModified != null) {
+            properties.setProperty(KEY_LAST_MODIFIED, lastModified);
+        }
+        OutputStream outputStream = new FileOutputStream(meta);
+        try {
+            properties.store(outputStream, null);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static String hash(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return String.valueOf(url.hashCode() & 0xFFFFFFFFL);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.mrq.library.gpufilterpager;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 按输出尺寸解码图片，只能在后台线程中使用。
+ * inSampleSize取解码后仍满足缩放方式覆盖要求的最大2的幂；
+ * 旋转90/270度的图片按旋转后的方向比较尺寸；
+ * CENTER_CROP时可只解码裁剪后可见的区域。
+ */
+class ImageDecoder {
+
+    private static final int TEMP_STORAGE_SIZE = 32 * 1024;
+    //像素数超过这个值时才先解码预览图
+    private static final long PROGRESSIVE_MIN_PIXELS = 4 * 1024 * 1024;
+    private static final int PREVIEW_MIN_SAMPLE_SIZE = 8;
+    //预览图的inSampleSize至少是原图的几倍
+    private static final int PREVIEW_SAMPLE_FACTOR = 4;
+
+    /**
+     * 图片数据来源，每次解码都会重新打开
+     */
+    interface Source {
+
+        InputStream open() throws IOException;
+
+        /**
+         * @return 顺时针旋转角度：0 90 180 270
+         */
+        int getOrientation();
+    }
+
+    /**
+     * 预览图解码完成，在解码线程中回调
+     */
+    interface PreviewListener {
+
+        void onPreview(Bitmap preview);
+    }
+
+    private final ScaleType mScaleType;
+    private final int mOutputWidth;
+    private final int mOutputHeight;
+    private final boolean mRegionDecode;
+    private final BitmapPool mBitmapPool;
+    private PreviewListener mPreviewListener;
+
+    /**
+     * @param outputWidth 显示宽度，0为不缩小
+     * @param outputHeight 显示高度，0为不缩小
+     * @param regionDecode CENTER_CROP时是否只解码可见区域
+     * @param bitmapPool 复用的Bitmap来源，可为null
+     */
+    ImageDecoder(ScaleType scaleType, int outputWidth, int outputHeight, boolean regionDecode,
+                 BitmapPool bitmapPool) {
+        mScaleType = scaleType;
+        mOutputWidth = outputWidth;
+        mOutputHeight = outputHeight;
+        mRegionDecode = regionDecode;
+        mBitmapPool = bitmapPool;
+    }
+
+    /**
+     * 设置后，大图先解码一张低分辨率的预览图回调，再解码原图
+     */
+    void setPreviewListener(PreviewListener listener) {
+        mPreviewListener = listener;
+    }
+
+    Bitmap decode(Source source) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(source, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int orientation = source.getOrientation();
+        boolean swap = orientation == 90 || orientation == 270;
+        int reqWidth = swap ? mOutputHeight : mOutputWidth;
+        int reqHeight = swap ? mOutputWidth : mOutputHeight;
+
+        int imageWidth = options.outWidth;
+        int imageHeight = options.outHeight;
+        Rect region = null;
+        int width = imageWidth;
+        int height = imageHeight;
+        if (mRegionDecode && mScaleType == ScaleType.CENTER_CROP && reqWidth > 0 && reqHeight > 0) {
+            region = getCropRegion(width, height, reqWidth, reqHeight);
+            if (region.right - region.left == width && region.bottom - region.top == height) {
+                region = null;
+            } else {
+                width = region.right - region.left;
+                height = region.bottom - region.top;
+            }
+        }
+
+        options = new BitmapFactory.Options();
+        options.inSampleSize = calculateInSampleSize(width, height, reqWidth, reqHeight, mScaleType);
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inTempStorage = mBitmapPool != null ? mBitmapPool.obtainTempStorage() : new byte[TEMP_STORAGE_SIZE];
+        try {
+            if (mPreviewListener != null && (long) imageWidth * imageHeight >= PROGRESSIVE_MIN_PIXELS) {
+                decodePreview(source, options, imageWidth, imageHeight);
+            }
+            if (region != null) {
+                Bitmap bitmap = decodeRegion(source, region, options);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+                //格式不支持区域解码，解码整张图片
+                options.inSampleSize = calculateInSampleSize(imageWidth, imageHeight,
+                        reqWidth, reqHeight, mScaleType);
+            }
+            return decodeReusing(source, options, imageWidth, imageHeight);
+        } finally {
+            if (mBitmapPool != null) {
+                mBitmapPool.releaseTempStorage(options.inTempStorage);
+            }
+        }
+    }
+
+    /**
+     * 解码整张图片的低分辨率预览图，裁剪交给GL处理
+     */
+    private void decodePreview(Source source, BitmapFactory.Options fullOptions, int width, int height)
+            throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = Math.max(PREVIEW_MIN_SAMPLE_SIZE, fullOptions.inSampleSize * PREVIEW_SAMPLE_FACTOR);
+        options.inPreferredConfig = fullOptions.inPreferredConfig;
+        options.inTempStorage = fullOptions.inTempStorage;
+        Bitmap preview = decodeReusing(source, options, width, height);
+        if (preview != null) {
+            mPreviewListener.onPreview(preview);
+        }
+    }
+
+    /**
+     * 从Bitmap池中取出可复用的Bitmap解码，复用失败时重新分配
+     */
+    private Bitmap decodeReusing(Source source, BitmapFactory.Options options, int width, int height)
+            throws IOException {
+        Bitmap reuse = obtainReusable(options, width, height);
+        try {
+            Bitmap bitmap = decodeStream(source, options);
+            if (bitmap == null) {
+                recycleReusable(options, reuse);
+            }
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            //inBitmap不能复用
+            recycleReusable(options, reuse);
+            return decodeStream(source, options);
+        }
+    }
+
+    private Bitmap obtainReusable(BitmapFactory.Options options, int width, int height) {
+        if (mBitmapPool == null || !BitmapPool.isSupported()) {
+            return null;
+        }
+        int sampleSize = options.inSampleSize;
+        options.inMutable = true;
+        options.inBitmap = mBitmapPool.get((width + sampleSize - 1) / sampleSize,
+                (height + sampleSize - 1) / sampleSize, options.inPreferredConfig);
+        return options.inBitmap;
+    }
+
+    private void recycleReusable(BitmapFactory.Options options, Bitmap reuse) {
+        options.inBitmap = null;
+        if (reuse != null) {
+            mBitmapPool.put(reuse);
+        }
+    }
+
+    /**
+     * 计算解码后仍满足覆盖要求的最大2的幂
+     * CENTER_CROP：宽高都不小于显示尺寸；其他：宽高至少有一边不小于显示尺寸
+     */
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight, ScaleType scaleType) {
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return 1;
+        }
+        int sampleSize = 1;
+        while (checkSize(width / (sampleSize * 2) >= reqWidth,
+                height / (sampleSize * 2) >= reqHeight, scaleType)) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static boolean checkSize(boolean widthBigger, boolean heightBigger, ScaleType scaleType) {
+        if (scaleType == ScaleType.CENTER_CROP) {
+            return widthBigger && heightBigger;
+        } else {
+            return widthBigger || heightBigger;
+        }
+    }
+
+    /**
+     * CENTER_CROP时图片居中裁剪到显示宽高比后的区域
+     */
+    static Rect getCropRegion(int width, int height, int reqWidth, int reqHeight) {
+        int cropWidth = width;
+        int cropHeight = height;
+        if ((long) width * reqHeight > (long) height * reqWidth) {
+            cropWidth = (int) Math.min(width, ((long) height * reqWidth + reqHeight - 1) / reqHeight);
+        } else {
+            cropHeight = (int) Math.min(height, ((long) width * reqHeight + reqWidth - 1) / reqWidth);
+        }
+        int left = (width - cropWidth) / 2;
+        int top = (height - cropHeight) / 2;
+        return new Rect(left, top, left + cropWidth, top + cropHeight);
+    }
+
+    private Bitmap decodeRegion(Source source, Rect region, BitmapFactory.Options options) {
+        InputStream inputStream = null;
+        BitmapRegionDecoder decoder = null;
+        Bitmap reuse = null;
+        try {
+            inputStream = source.open();
+            decoder = BitmapRegionDecoder.newInstance(inputStream, false);
+            reuse = obtainReusable(options, region.right - region.left, region.bottom - region.top);
+            Bitmap bitmap = decoder.decodeRegion(region, options);
+            if (bitmap == null) {
+                recycleReusable(options, reuse);
+            }
+            return bitmap;
+        } catch (IOException | IllegalArgumentException e) {
+            recycleReusable(options, reuse);
+            return null;
+        } finally {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+            closeQuietly(inputStream);
+        }
+    }
+
+    private static Bitmap decodeStream(Source source, BitmapFactory.Options options) throws IOException {
+        InputStream inputStream = source.open();
+        try {
+            return BitmapFactory.decodeStream(inputStream, null, options);
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+
+    static void closeQuietly(InputStream inputStream) {
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
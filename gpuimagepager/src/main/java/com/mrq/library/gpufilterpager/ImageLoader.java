@@ -0,0 +1,199 @@
+package com.mrq.library.gpufilterpager;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 图片加载，所有实例共用一个有界的后台线程池。
+ * 每个实例只保留最新的一次请求：新请求会取消还没完成的旧请求，
+ * 与正在加载的请求key相同时直接合并，只有最新请求的结果会回调。
+ * 除 {@link Request#isCancelled()} 外只能在主线程中调用。
+ */
+class ImageLoader {
+    private static final String TAG = "GPUImagePager";
+
+    private static final int MAX_THREADS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private static final ThreadPoolExecutor sExecutor;
+
+    static {
+        sExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "GPUImagePager-loader-" + mCount.incrementAndGet());
+            }
+        });
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 在后台线程中执行的加载
+     */
+    interface Task {
+
+        /**
+         * @param request 用于检查是否已取消，已取消时尽快返回
+         * @return 加载结果，可为null
+         */
+        Bitmap load(Request request);
+
+        /**
+         * 在加载线程中调用，预览图和加载结果共用
+         * @return 显示时需要的旋转和翻转
+         */
+        ImageOrientation getImageOrientation();
+    }
+
+    /**
+     * 在主线程中回调
+     */
+    interface Callback {
+
+        /**
+         * 最新请求的结果
+         * @param key 请求的key
+         * @param orientation 显示时需要的旋转和翻转
+         */
+        void onLoaded(String key, Bitmap bitmap, ImageOrientation orientation);
+
+        /**
+         * 最新请求的低分辨率预览，之后还会回调 {@link #onLoaded(String, Bitmap, ImageOrientation)}
+         */
+        void onPreview(String key, Bitmap preview, ImageOrientation orientation);
+
+        /**
+         * 已被取代的请求的结果，不会显示
+         */
+        void onDiscarded(Bitmap bitmap);
+    }
+
+    final class Request implements Runnable {
+        private final String mKey;
+        private final Task mTask;
+        private final Callback mCallback;
+        private volatile boolean mCancelled;
+        private Future<?> mFuture;
+
+        private Request(String key, Task task, Callback callback) {
+            mKey = key;
+            mTask = task;
+            mCallback = callback;
+        }
+
+        /**
+         * 可在任意线程调用
+         */
+        boolean isCancelled() {
+            return mCancelled;
+        }
+
+        private void cancel() {
+            mCancelled = true;
+            if (mFuture != null) {
+                mFuture.cancel(true);
+            }
+        }
+
+        /**
+         * 在加载线程中发布预览图
+         */
+        void publishPreview(final Bitmap preview) {
+            final ImageOrientation orientation = mTask.getImageOrientation();
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (Request.this != mLatest || mCancelled) {
+                        mCallback.onDiscarded(preview);
+                        return;
+                    }
+                    mCallback.onPreview(mKey, preview, orientation);
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            Bitmap bitmap = null;
+            ImageOrientation orientation = ImageOrientation.NORMAL;
+            try {
+                bitmap = mTask.load(this);
+                if (bitmap != null) {
+                    orientation = mTask.getImageOrientation();
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "load " + mKey + " failed", e);
+            } finally {
+                //加载失败也要回调，否则之后相同key的请求都会合并到这个请求上而永远不会完成
+                final Bitmap result = bitmap;
+                final ImageOrientation resultOrientation = orientation;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(Request.this, result, resultOrientation);
+                    }
+                });
+            }
+        }
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Request mLatest;
+
+    /**
+     * 加载图片，取消之前还没完成的请求
+     * @param key 相同key的请求得到相同的结果
+     */
+    void load(String key, Task task, Callback callback) {
+        if (mLatest != null && mLatest.mKey.equals(key)) {
+            return;
+        }
+        cancel();
+        Request request = new Request(key, task, callback);
+        mLatest = request;
+        request.mFuture = sExecutor.submit(request);
+    }
+
+    /**
+     * 取消还没完成的请求
+     */
+    void cancel() {
+        if (mLatest != null) {
+            mLatest.cancel();
+            mLatest = null;
+        }
+    }
+
+    private void deliver(Request request, Bitmap bitmap, ImageOrientation orientation) {
+        if (request != mLatest || request.mCancelled) {
+            if (bitmap != null) {
+                request.mCallback.onDiscarded(bitmap);
+            }
+            return;
+        }
+        mLatest = null;
+        request.mCallback.onLoaded(request.mKey, bitmap, orientation);
+    }
+}
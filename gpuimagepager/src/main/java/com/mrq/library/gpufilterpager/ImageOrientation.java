@@ -0,0 +1,59 @@
+package com.mrq.library.gpufilterpager;
+
+import android.media.ExifInterface;
+
+/**
+ * 图片显示时需要的方向：先按翻转标记镜像原图，再顺时针旋转，与 {@link TextureRotationUtil} 的贴图坐标一致。
+ * 覆盖EXIF的全部8种方向
+ */
+final class ImageOrientation {
+
+    static final ImageOrientation NORMAL = new ImageOrientation(Rotation.NORMAL, false, false);
+
+    final Rotation rotation;
+    final boolean flipHorizontal;
+    final boolean flipVertical;
+
+    ImageOrientation(Rotation rotation, boolean flipHorizontal, boolean flipVertical) {
+        this.rotation = rotation;
+        this.flipHorizontal = flipHorizontal;
+        this.flipVertical = flipVertical;
+    }
+
+    /**
+     * @param degrees 顺时针旋转角度，不是90的倍数时（MediaStore中的值不一定规范）不旋转
+     */
+    static ImageOrientation fromDegrees(int degrees) {
+        degrees = (degrees % 360 + 360) % 360;
+        if (degrees == 0 || degrees % 90 != 0) {
+            return NORMAL;
+        }
+        return new ImageOrientation(Rotation.fromInt(degrees), false, false);
+    }
+
+    /**
+     * @param exifOrientation ExifInterface.TAG_ORIENTATION的值，未知的值按不旋转处理
+     */
+    static ImageOrientation fromExif(int exifOrientation) {
+        switch (exifOrientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                return new ImageOrientation(Rotation.NORMAL, true, false);
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return new ImageOrientation(Rotation.ROTATION_180, false, false);
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                return new ImageOrientation(Rotation.NORMAL, false, true);
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                //沿主对角线翻转：镜像后顺时针旋转270度
+                return new ImageOrientation(Rotation.ROTATION_270, true, false);
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return new ImageOrientation(Rotation.ROTATION_90, false, false);
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                //沿副对角线翻转：镜像后顺时针旋转90度
+                return new ImageOrientation(Rotation.ROTATION_90, true, false);
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return new ImageOrientation(Rotation.ROTATION_270, false, false);
+            default:
+                return NORMAL;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.mrq.library.gpufilterpager;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.opengl.GLES20;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * 上传到GPU的图片。超过GL_MAX_TEXTURE_SIZE的图片切分成多块纹理，
+ * 绘制时按每块在图片中的位置裁剪顶点、贴图坐标分别绘制，拼成一张完整的图片。
+ * 相邻块各多上传1像素边缘，线性采样时接缝处不会出现断层。
+ * KITKAT以上所有块共用一个Bitmap，按块大小reconfigure后从原图复制再上传。
+ * 只能在创建它的上下文（或共享上下文）中使用。
+ */
+class ImageTexture {
+
+    //每块两侧多上传的像素
+    private static final int BORDER = 1;
+    //ES2规定的GL_MAX_TEXTURE_SIZE最小值
+    private static final int MIN_TEXTURE_SIZE = 64;
+
+    final int width;
+    final int height;
+    //渲染得到的纹理格式与Bitmap不同，不能用texSubImage2D覆盖
+    private final boolean mReusable;
+    private final int[] mTextureIds;
+    //每块的有效区域和纹理区域，图片贴图坐标：left top right bottom
+    private final float[] mTileRects;
+    private final float[] mTextureRects;
+
+    //绘制分块时的临时坐标
+    private final FloatBuffer mTileCubeBuffer;
+    private final FloatBuffer mTileTextureBuffer;
+    private final float[] mParams = new float[4];
+
+    private ImageTexture(int width, int height, boolean reusable, int[] textureIds,
+                         float[] tileRects, float[] textureRects) {
+        this.width = width;
+        this.height = height;
+        mReusable = reusable;
+        mTextureIds = textureIds;
+        mTileRects = tileRects;
+        mTextureRects = textureRects;
+        if (textureIds.length > 1) {
+            mTileCubeBuffer = ByteBuffer.allocateDirect(8 * 4)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            mTileTextureBuffer = ByteBuffer.allocateDirect(8 * 4)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        } else {
+            mTileCubeBuffer = null;
+            mTileTextureBuffer = null;
+        }
+    }
+
+    /**
+     * 上传图片，块数和块大小由当前上下文的GL_MAX_TEXTURE_SIZE决定
+     * @param reuse 尺寸相同且只有一块时直接覆盖它的内容，否则删除，可为null
+     */
+    static ImageTexture upload(Bitmap bitmap, ImageTexture reuse, boolean recycle) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int maxSize = getMaxTextureSize();
+        if (width <= maxSize && height <= maxSize) {
+            if (reuse != null && reuse.mReusable && reuse.isSingle()
+                    && reuse.width == width && reuse.height == height) {
+                OpenGlUtils.loadTexture(bitmap, reuse.mTextureIds[0], recycle);
+                return reuse;
+            }
+            if (reuse != null) {
+                reuse.delete();
+            }
+            int textureId = OpenGlUtils.loadTexture(bitmap, OpenGlUtils.NO_TEXTURE, recycle);
+            return single(width, height, true, textureId);
+        }
+        if (reuse != null) {
+            reuse.delete();
+        }
+        ImageTexture texture = uploadTiles(bitmap, maxSize);
+        if (recycle) {
+            bitmap.recycle();
+        }
+        return texture;
+    }
+
+    private static ImageTexture uploadTiles(Bitmap bitmap, int maxSize) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int step = maxSize - 2 * BORDER;
+        int columns = (width + step - 1) / step;
+        int rows = (height + step - 1) / step;
+        int[] textureIds = new int[columns * rows];
+        float[] tileRects = new float[textureIds.length * 4];
+        float[] textureRects = new float[textureIds.length * 4];
+        Bitmap tile = null;
+        Canvas canvas = null;
+        Paint paint = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            //最大的块不超过maxSize，其他块reconfigure成更小的尺寸
+            Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+            tile = Bitmap.createBitmap(Math.min(width, maxSize), Math.min(height, maxSize), config);
+            canvas = new Canvas();
+            paint = new Paint();
+            //直接覆盖上一块的内容，透明像素不与旧内容混合
+            paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        }
+        int index = 0;
+        for (int row = 0; row < rows; row++) {
+            int top = row * step;
+            int bottom = Math.min(height, top + step);
+            int textureTop = Math.max(0, top - BORDER);
+            int textureBottom = Math.min(height, bottom + BORDER);
+            for (int column = 0; column < columns; column++) {
+                int left = column * step;
+                int right = Math.min(width, left + step);
+                int textureLeft = Math.max(0, left - BORDER);
+                int textureRight = Math.min(width, right + BORDER);
+                int tileWidth = textureRight - textureLeft;
+                int tileHeight = textureBottom - textureTop;
+                if (tile != null) {
+                    if (tile.getWidth() != tileWidth || tile.getHeight() != tileHeight) {
+                        tile.reconfigure(tileWidth, tileHeight, tile.getConfig());
+                    }
+                    canvas.setBitmap(tile);
+                    canvas.drawBitmap(bitmap, -textureLeft, -textureTop, paint);
+                    textureIds[index] = OpenGlUtils.loadTexture(tile, OpenGlUtils.NO_TEXTURE, false);
+                } else {
+                    Bitmap copy = Bitmap.createBitmap(bitmap, textureLeft, textureTop, tileWidth, tileHeight);
+                    textureIds[index] = OpenGlUtils.loadTexture(copy, OpenGlUtils.NO_TEXTURE, copy != bitmap);
+                }
+                putRect(tileRects, index, left, top, right, bottom, width, height);
+                putRect(textureRects, index, textureLeft, textureTop, textureRight, textureBottom, width, height);
+                index++;
+            }
+        }
+        if (tile != null) {
+            canvas.setBitmap(null);
+            tile.recycle();
+        }
+        return new ImageTexture(width, height, true, textureIds, tileRects, textureRects);
+    }
+
+    private static ImageTexture single(int width, int height, boolean reusable, int textureId) {
+        return new ImageTexture(width, height, reusable, new int[]{textureId},
+                new float[]{0, 0, 1, 1}, new float[]{0, 0, 1, 1});
+    }
+
+    /**
+     * 分配一张空的RGBA纹理，作为渲染目标写入图片内容
+     */
+    static ImageTexture allocate(int width, int height) {
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        return single(width, height, false, textures[0]);
+    }
+
+    private static void putRect(float[] rects, int index, int left, int top, int right, int bottom,
+                                int width, int height) {
+        rects[index * 4] = (float) left / width;
+        rects[index * 4 + 1] = (float) top / height;
+        rects[index * 4 + 2] = (float) right / width;
+        rects[index * 4 + 3] = (float) bottom / height;
+    }
+
+    static int getMaxTextureSize() {
+        int[] size = new int[1];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, size, 0);
+        //ES2只保证64，查询失败（如没有当前上下文）时按最小值处理
+        return size[0] > 0 ? size[0] : MIN_TEXTURE_SIZE;
+    }
+
+    boolean isSingle() {
+        return mTextureIds.length == 1;
+    }
+
+    /**
+     * @return 只有一块时的纹理id
+     */
+    int getTextureId() {
+        return mTextureIds[0];
+    }
+
+    int getTileCount() {
+        return mTextureIds.length;
+    }
+
+    void delete() {
+        GLES20.glDeleteTextures(mTextureIds.length, mTextureIds, 0);
+    }
+
+    /**
+     * 计算第index块的绘制区域，写入 {@link #getTileCubeBuffer()} 和 {@link #getTileTextureBuffer()}
+     * @param cubeBuffer 整张图片的绘制区域，左下 右下 左上 右上
+     * @param textureBuffer 整张图片的贴图选区
+     * @return false 这一块不在选区内，不需要绘制
+     */
+    boolean computeTile(int index, FloatBuffer cubeBuffer, FloatBuffer textureBuffer) {
+        float[] params = mParams;
+        //选区内的贴图坐标是顶点0、1、2张成的仿射映射：T = T0 + s(T1 - T0) + t(T2 - T0)，旋转翻转都是90度的倍数
+        params[0] = 0;
+        params[1] = 0;
+        params[2] = 1;
+        params[3] = 1;
+        if (!clip(index, 0, textureBuffer, params) || !clip(index, 1, textureBuffer, params)) {
+            return false;
+        }
+        float s0 = params[0];
+        float t0 = params[1];
+        float s1 = params[2];
+        float t1 = params[3];
+        putCorner(index, 0, s0, t0, cubeBuffer, textureBuffer);
+        putCorner(index, 1, s1, t0, cubeBuffer, textureBuffer);
+        putCorner(index, 2, s0, t1, cubeBuffer, textureBuffer);
+        putCorner(index, 3, s1, t1, cubeBuffer, textureBuffer);
+        mTileCubeBuffer.position(0);
+        mTileTextureBuffer.position(0);
+        return true;
+    }
+
+    FloatBuffer getTileCubeBuffer() {
+        return mTileCubeBuffer;
+    }
+
+    FloatBuffer getTileTextureBuffer() {
+        return mTileTextureBuffer;
+    }
+
+    int getTileTextureId(int index) {
+        return mTextureIds[index];
+    }
+
+    /**
+     * 把贴图坐标的第axis维限制在块的有效区域内，缩小参数范围s、t
+     * @param params 参数范围：s0 t0 s1 t1
+     */
+    private boolean clip(int index, int axis, FloatBuffer textureBuffer, float[] params) {
+        float origin = textureBuffer.get(axis);
+        float ds = textureBuffer.get(2 + axis) - origin;
+        float dt = textureBuffer.get(4 + axis) - origin;
+        float min = mTileRects[index * 4 + axis];
+        float max = mTileRects[index * 4 + 2 + axis];
+        //这一维只随s或t变化
+        int param = Math.abs(ds) >= Math.abs(dt) ? 0 : 1;
+        float d = param == 0 ? ds : dt;
+        if (d == 0) {
+            return origin >= min && origin <= max;
+        }
+        float p0 = (min - origin) / d;
+        float p1 = (max - origin) / d;
+        params[param] = Math.max(params[param], Math.min(p0, p1));
+        params[param + 2] = Math.min(params[param + 2], Math.max(p0, p1));
+        return params[param] < params[param + 2];
+    }
+
+    private void putCorner(int index, int corner, float s, float t,
+                           FloatBuffer cubeBuffer, FloatBuffer textureBuffer) {
+        for (int axis = 0; axis < 2; axis++) {
+            float cube = lerp(cubeBuffer, axis, s, t);
+            float texture = lerp(textureBuffer, axis, s, t);
+            float textureMin = mTextureRects[index * 4 + axis];
+            float textureMax = mTextureRects[index * 4 + 2 + axis];
+            mTileCubeBuffer.put(corner * 2 + axis, cube);
+            mTileTextureBuffer.put(corner * 2 + axis, (texture - textureMin) / (textureMax - textureMin));
+        }
+    }
+
+    private static float lerp(FloatBuffer buffer, int axis, float s, float t) {
+        float origin = buffer.get(axis);
+        return origin + s * (buffer.get(2 + axis) - origin) + t * (buffer.get(4 + axis) - origin);
+    }
+}
@@ -3,6 +3,7 @@ package com.mrq.library.gpufilterpager;
 import android.graphics.Bitmap;
 import android.opengl.GLES20;
 import android.opengl.GLUtils;
+import android.os.Build;
 
 /**
  *
@@ -12,9 +13,15 @@ import android.opengl.GLUtils;
 public class OpenGlUtils {
 
     public static final int NO_TEXTURE = -1;
+    private static final int DEFAULT_UNPACK_ALIGNMENT = 4;
 
     public static int loadTexture(final Bitmap img, final int usedTexId, final boolean recycle) {
         int textures[] = new int[1];
+        //默认每行按4字节对齐，RGB_565奇数宽度的行不是4的倍数，按实际行字节数对齐后可以直接上传
+        int alignment = getUnpackAlignment(img.getRowBytes());
+        if (alignment != DEFAULT_UNPACK_ALIGNMENT) {
+            GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, alignment);
+        }
         if (usedTexId == NO_TEXTURE) {
             GLES20.glGenTextures(1, textures, 0);
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
@@ -33,9 +40,41 @@ public class OpenGlUtils {
             GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, img);
             textures[0] = usedTexId;
         }
+        if (alignment != DEFAULT_UNPACK_ALIGNMENT) {
+            GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, DEFAULT_UNPACK_ALIGNMENT);
+        }
         if (recycle) {
             img.recycle();
         }
         return textures[0];
     }
+
+    /**
+     * 当前上下文是否可以使用GLES30（fence、PBO等），只能在GL线程中调用
+     */
+    static boolean isGles3() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2
+                && isGles3(GLES20.glGetString(GLES20.GL_VERSION));
+    }
+
+    private static boolean isGles3(String version) {
+        //格式为 "OpenGL ES <major>.<minor> ..."
+        if (version == null || !version.startsWith("OpenGL ES ") || version.length() <= 10) {
+            return false;
+        }
+        char major = version.charAt(10);
+        return major >= '3' && major <= '9';
+    }
+
+    /**
+     * @return 能整除每行字节数的对齐值：4 2 1
+     */
+    static int getUnpackAlignment(int rowBytes) {
+        if (rowBytes % 4 == 0) {
+            return 4;
+        } else if (rowBytes % 2 == 0) {
+            return 2;
+        }
+        return 1;
+    }
 }
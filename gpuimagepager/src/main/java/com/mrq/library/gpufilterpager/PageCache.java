@@ -0,0 +1,101 @@
+package com.mrq.library.gpufilterpager;
+
+import java.util.ArrayList;
+
+/**
+ * 已渲染页面的缓存，只能在GL线程中使用。
+ * 图片和滤镜都不变时，每个滤镜处理后的画面也不变：静止时把当前页和左右相邻页各渲染一次到FBO，
+ * 拖动和滑动动画期间只需按分割位置贴出缓存的纹理，不再执行滤镜的shader。
+ * 以滤镜对象本身（==）作为key，渲染目标来自 {@link RenderTargetPool}，总大小不超过预算。
+ */
+class PageCache {
+
+    static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    private final RenderTargetPool mPool;
+    private final ArrayList<Filter> mFilters = new ArrayList<>(3);
+    private final ArrayList<RenderTargetPool.RenderTarget> mTargets = new ArrayList<>(3);
+    private long mMaxBytes;
+    private long mBytes;
+
+    PageCache(RenderTargetPool pool, long maxBytes) {
+        mPool = pool;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return 滤镜已缓存的画面，没有时返回null
+     */
+    RenderTargetPool.RenderTarget get(Filter filter) {
+        for (int i = 0; i < mFilters.size(); i++) {
+            if (mFilters.get(i) == filter) {
+                return mTargets.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 为滤镜分配缓存的渲染目标，由调用方绘制内容
+     * @return 超出预算时返回null
+     */
+    RenderTargetPool.RenderTarget put(Filter filter, int width, int height) {
+        long bytes = (long) width * height * 4;
+        if (mBytes + bytes > mMaxBytes) {
+            return null;
+        }
+        RenderTargetPool.RenderTarget target = mPool.acquire(width, height);
+        mFilters.add(filter);
+        mTargets.add(target);
+        mBytes += target.getBytes();
+        return target;
+    }
+
+    /**
+     * 滤镜窗口变化，只保留窗口内滤镜的画面
+     */
+    void retain(Filter left, Filter cur, Filter right) {
+        for (int i = mFilters.size() - 1; i >= 0; i--) {
+            Filter filter = mFilters.get(i);
+            if (filter != left && filter != cur && filter != right) {
+                remove(i);
+            }
+        }
+    }
+
+    void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        for (int i = mFilters.size() - 1; i >= 0 && mBytes > mMaxBytes; i--) {
+            remove(i);
+        }
+    }
+
+    /**
+     * 图片、缩放方式或尺寸变化，缓存的画面全部失效
+     */
+    void clear() {
+        for (int i = mFilters.size() - 1; i >= 0; i--) {
+            remove(i);
+        }
+    }
+
+    /**
+     * GL上下文已重建，渲染目标已随 {@link RenderTargetPool#invalidate()} 丢弃，只清空记录
+     */
+    void invalidate() {
+        mFilters.clear();
+        mTargets.clear();
+        mBytes = 0;
+    }
+
+    long getBytes() {
+        return mBytes;
+    }
+
+    private void remove(int index) {
+        mFilters.remove(index);
+        RenderTargetPool.RenderTarget target = mTargets.remove(index);
+        mBytes -= target.getBytes();
+        mPool.release(target);
+    }
+}
@@ -0,0 +1,43 @@
+package com.mrq.library.gpufilterpager;
+
+/**
+ * 渲染和滑动路径上的trace打点。
+ * 没有设置 {@link PagerTracer} 时每个打点只是一次静态字段的null判断，不拼接字符串也不分配内存。
+ */
+final class PagerTrace {
+
+    static final String DRAW_FRAME = "GPUImagePager#onDrawFrame";
+    static final String DRAIN_QUEUE = "GPUImagePager#drainQueue";
+    static final String DRAW_FILTER = "GPUImagePager#drawFilter";
+    static final String UPLOAD_TEXTURE = "GPUImagePager#uploadTexture";
+    static final String SETTLE_STEP = "GPUImagePager#settleStep";
+    static final String COMPUTE_SCROLL = "FilterPagerLayout#computeScroll";
+    static final String SCROLL_TO = "FilterPagerLayout#scrollTo";
+
+    private static volatile PagerTracer sTracer;
+
+    private PagerTrace() {
+    }
+
+    static void setTracer(PagerTracer tracer) {
+        sTracer = tracer;
+    }
+
+    /**
+     * 设置了tracer时返回它，调用方在同一次打点中使用返回值调用 {@link PagerTracer#endSection()}，
+     * 避免中途切换tracer导致begin/end不配对
+     */
+    static PagerTracer begin(String name) {
+        PagerTracer tracer = sTracer;
+        if (tracer != null) {
+            tracer.beginSection(name);
+        }
+        return tracer;
+    }
+
+    static void end(PagerTracer tracer) {
+        if (tracer != null) {
+            tracer.endSection();
+        }
+    }
+}
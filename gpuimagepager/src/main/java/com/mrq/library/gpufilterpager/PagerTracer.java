@@ -0,0 +1,36 @@
+package com.mrq.library.gpufilterpager;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Receives begin/end trace sections from the pager's render and scroll paths, see
+ * {@link GPUImagePager#setTracer(PagerTracer)}. Sections are strictly nested per thread
+ * and section names are constants, so an implementation never has to copy them.
+ */
+public interface PagerTracer {
+
+    void beginSection(String name);
+
+    void endSection();
+
+    /**
+     * Forwards sections to {@link android.os.Trace} so they show up in systrace and Perfetto.
+     * Does nothing below API 18.
+     */
+    PagerTracer SYSTEM = new PagerTracer() {
+        @Override
+        public void beginSection(String name) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                Trace.beginSection(name);
+            }
+        }
+
+        @Override
+        public void endSection() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                Trace.endSection();
+            }
+        }
+    };
+}
@@ -0,0 +1,155 @@
+package com.mrq.library.gpufilterpager;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 读回当前绑定FBO的像素，只能在GL线程中使用。
+ * ES3时glReadPixels写入两个轮换的PBO并插入fence，之后的帧里fence已完成才映射读取，
+ * CPU不会等待GPU；ES2没有PBO，只能同步读回。
+ * 结果按读取顺序交给 {@link Consumer}。
+ */
+class PixelReader {
+
+    private static final int SLOT_COUNT = 2;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * 读回完成，在GL线程中回调，pixels只在回调期间有效
+     */
+    interface Consumer {
+
+        /**
+         * @param pixels RGBA，从FBO第0行（底部）开始
+         */
+        void onPixels(Object tag, ByteBuffer pixels, int width, int height);
+    }
+
+    private final boolean mAsync;
+    private final Consumer mConsumer;
+
+    private final int[] mBuffers = new int[SLOT_COUNT];
+    private final int[] mBufferSizes = new int[SLOT_COUNT];
+    private final long[] mFences = new long[SLOT_COUNT];
+    private final Object[] mTags = new Object[SLOT_COUNT];
+    private final int[] mWidths = new int[SLOT_COUNT];
+    private final int[] mHeights = new int[SLOT_COUNT];
+    //最早的未完成读取和下一个空闲位置
+    private int mReadIndex;
+    private int mPendingCount;
+
+    //同步读回时复用
+    private ByteBuffer mSyncBuffer;
+
+    /**
+     * @param async 是否使用PBO异步读回，需要ES3
+     */
+    PixelReader(boolean async, Consumer consumer) {
+        mAsync = async;
+        mConsumer = consumer;
+    }
+
+    /**
+     * @return 两个PBO都在等待读回，这一帧不能再读
+     */
+    boolean isFull() {
+        return mPendingCount == SLOT_COUNT;
+    }
+
+    /**
+     * 读取当前绑定FBO左下角width x height的区域，同步读回时直接回调
+     */
+    void read(int width, int height, Object tag) {
+        int size = width * height * BYTES_PER_PIXEL;
+        if (!mAsync) {
+            if (mSyncBuffer == null || mSyncBuffer.capacity() < size) {
+                mSyncBuffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            }
+            mSyncBuffer.clear();
+            mSyncBuffer.limit(size);
+            GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mSyncBuffer);
+            mConsumer.onPixels(tag, mSyncBuffer, width, height);
+            return;
+        }
+        int slot = (mReadIndex + mPendingCount) % SLOT_COUNT;
+        if (mBuffers[slot] == 0) {
+            GLES30.glGenBuffers(1, mBuffers, slot);
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mBuffers[slot]);
+        if (mBufferSizes[slot] != size) {
+            GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+            mBufferSizes[slot] = size;
+        }
+        GLES30.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        mFences[slot] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        mTags[slot] = tag;
+        mWidths[slot] = width;
+        mHeights[slot] = height;
+        mPendingCount++;
+    }
+
+    /**
+     * 按顺序交出已经完成的读取，遇到还没完成的就停止，不等待
+     */
+    void poll() {
+        while (mPendingCount > 0) {
+            int slot = mReadIndex;
+            int status = GLES30.glClientWaitSync(mFences[slot], GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+            if (status == GLES30.GL_TIMEOUT_EXPIRED) {
+                return;
+            }
+            GLES30.glDeleteSync(mFences[slot]);
+            mFences[slot] = 0;
+            int size = mBufferSizes[slot];
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mBuffers[slot]);
+            ByteBuffer pixels = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, size,
+                    GLES30.GL_MAP_READ_BIT);
+            Object tag = mTags[slot];
+            mTags[slot] = null;
+            mReadIndex = (mReadIndex + 1) % SLOT_COUNT;
+            mPendingCount--;
+            if (pixels != null) {
+                pixels.order(ByteOrder.nativeOrder());
+                mConsumer.onPixels(tag, pixels, mWidths[slot], mHeights[slot]);
+                GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            } else {
+                mConsumer.onPixels(tag, null, mWidths[slot], mHeights[slot]);
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        }
+    }
+
+    /**
+     * 删除PBO和fence，未完成的读取被丢弃
+     */
+    void release() {
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            if (mFences[i] != 0) {
+                GLES30.glDeleteSync(mFences[i]);
+            }
+            if (mBuffers[i] != 0) {
+                GLES30.glDeleteBuffers(1, mBuffers, i);
+            }
+        }
+        invalidate();
+    }
+
+    /**
+     * GL上下文已重建，PBO和fence已失效，只清空记录
+     */
+    void invalidate() {
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            mBuffers[i] = 0;
+            mBufferSizes[i] = 0;
+            mFences[i] = 0;
+            mTags[i] = null;
+        }
+        mReadIndex = 0;
+        mPendingCount = 0;
+        mSyncBuffer = null;
+    }
+}
@@ -0,0 +1,225 @@
+package com.mrq.library.gpufilterpager;
+
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * GL线程的命令队列，多个线程提交，GL线程在每帧开始时执行。
+ * <p>
+ * 普通命令放入无锁的有界环形队列，按提交顺序执行。环形队列满时（如surface还没创建或GLSurfaceView已暂停，
+ * 没有线程执行命令）放入加锁的溢出列表，之后的命令也都进入溢出列表，直到GL线程把它执行完，提交顺序不变。
+ * 滑动位置和左中右滤镜只保留最新的一次，每帧最多执行一次，与触摸事件频率无关。
+ * 滑动和滤镜只能由UI线程提交。
+ * <p>
+ * 执行顺序：合并后的滤镜在本帧所有普通命令之前生效，滑动位置在所有普通命令之后生效，
+ * 与提交顺序无关。普通命令中读到的左中右滤镜总是本帧最新提交的。
+ */
+class RenderCommandQueue {
+
+    static final int DEFAULT_CAPACITY = 256;
+    private static final long NO_SCROLL = Long.MIN_VALUE;
+
+    /**
+     * 执行合并后的命令
+     */
+    interface Target {
+
+        void setFilters(Filter left, Filter cur, Filter right);
+
+        void setScroll(int scrollX, boolean dragToLeft);
+    }
+
+    private static final class FilterWindow {
+        final Filter left;
+        final Filter cur;
+        final Filter right;
+        final int generation;
+
+        FilterWindow(Filter left, Filter cur, Filter right, int generation) {
+            this.left = left;
+            this.cur = cur;
+            this.right = right;
+            this.generation = generation;
+        }
+    }
+
+    private final int mMask;
+    private final AtomicReferenceArray<Runnable> mBuffer;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mTail = new AtomicLong();
+    private volatile long mHead;
+
+    //环形队列满之后提交的命令，由mSpillLock保护
+    private final Object mSpillLock = new Object();
+    private final LinkedList<Runnable> mSpill = new LinkedList<>();
+    private volatile boolean mSpilling;
+
+    private final AtomicReference<FilterWindow> mFilters = new AtomicReference<>();
+    //高32位scrollX，低32位为滤镜代数和方向
+    private final AtomicLong mScroll = new AtomicLong(NO_SCROLL);
+
+    //UI线程最后提交的滤镜
+    private FilterWindow mPostedFilters;
+    //GL线程当前使用的滤镜代数
+    private int mAppliedGeneration;
+
+    //被覆盖而没有执行的滑动、滤镜命令个数
+    private final AtomicInteger mCoalescedCount = new AtomicInteger();
+
+    /**
+     * @param capacity 环形队列容量，向上取整为2的幂
+     */
+    RenderCommandQueue(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mBuffer = new AtomicReferenceArray<>(size);
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+    }
+
+    /**
+     * 提交普通命令，按提交顺序执行。不会失败，GL线程长时间没有绘制时进入溢出列表
+     */
+    void post(Runnable command) {
+        if (!mSpilling && offer(command)) {
+            return;
+        }
+        synchronized (mSpillLock) {
+            //溢出列表已执行完时回到环形队列
+            if (!mSpilling && offer(command)) {
+                return;
+            }
+            mSpilling = true;
+            mSpill.add(command);
+        }
+    }
+
+    /**
+     * 提交左中右滤镜，未执行的上一次提交会被覆盖
+     * @return false 与上一次提交的滤镜相同，不需要提交
+     */
+    boolean postFilters(Filter left, Filter cur, Filter right) {
+        FilterWindow posted = mPostedFilters;
+        if (posted != null && posted.left == left && posted.cur == cur && posted.right == right) {
+            return false;
+        }
+        int generation = posted != null ? posted.generation + 1 : 1;
+        mPostedFilters = new FilterWindow(left, cur, right, generation & Integer.MAX_VALUE);
+        if (mFilters.getAndSet(mPostedFilters) != null) {
+            mCoalescedCount.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * 提交滑动位置，未执行的上一次提交会被覆盖
+     * @param targetFilter 滑动位置对应的当前滤镜
+     * @return false 当前滤镜已改变，放弃本次滑动
+     */
+    boolean postScroll(Filter targetFilter, int scrollX, boolean dragToLeft) {
+        FilterWindow posted = mPostedFilters;
+        if (posted == null || posted.cur != targetFilter) {
+            return false;
+        }
+        long value = ((long) scrollX << 32) | ((long) posted.generation << 1) | (dragToLeft ? 1 : 0);
+        if (mScroll.getAndSet(value) != NO_SCROLL) {
+            mCoalescedCount.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * 在GL线程中执行所有命令：先切换滤镜，再按提交顺序执行普通命令，最后设置滑动位置
+     * @return 执行的命令个数
+     */
+    int drain(Target target) {
+        int count = 0;
+        FilterWindow filters = mFilters.getAndSet(null);
+        if (filters != null) {
+            mAppliedGeneration = filters.generation;
+            target.setFilters(filters.left, filters.cur, filters.right);
+            count++;
+        }
+
+        Runnable command;
+        while ((command = poll()) != null) {
+            command.run();
+            count++;
+        }
+        //溢出的命令都在环形队列中的命令之后提交
+        while (mSpilling) {
+            synchronized (mSpillLock) {
+                command = mSpill.poll();
+                if (command == null) {
+                    mSpilling = false;
+                    break;
+                }
+            }
+            command.run();
+            count++;
+        }
+
+        long scroll = mScroll.getAndSet(NO_SCROLL);
+        if (scroll != NO_SCROLL) {
+            int generation = (int) (scroll & 0xFFFFFFFFL) >>> 1;
+            //滑动位置是基于旧滤镜计算的，丢弃
+            if (generation == mAppliedGeneration) {
+                target.setScroll((int) (scroll >> 32), (scroll & 1) != 0);
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return 上次调用之后被新命令覆盖而没有执行的滑动、滤镜命令个数，并清零
+     */
+    int takeCoalescedCount() {
+        return mCoalescedCount.getAndSet(0);
+    }
+
+    private boolean offer(Runnable command) {
+        long pos = mTail.get();
+        int index;
+        while (true) {
+            index = (int) (pos & mMask);
+            long diff = mSequences.get(index) - pos;
+            if (diff == 0) {
+                if (mTail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = mTail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = mTail.get();
+            }
+        }
+        mBuffer.set(index, command);
+        mSequences.set(index, pos + 1);
+        return true;
+    }
+
+    private Runnable poll() {
+        long pos = mHead;
+        int index = (int) (pos & mMask);
+        if (mSequences.get(index) != pos + 1) {
+            return null;
+        }
+        Runnable command = mBuffer.get(index);
+        mBuffer.set(index, null);
+        mSequences.set(index, pos + mMask + 1);
+        mHead = pos + 1;
+        return command;
+    }
+}
@@ -0,0 +1,89 @@
+package com.mrq.library.gpufilterpager;
+
+/**
+ * 由渲染线程执行的滑动动画，只能在GL线程中使用。
+ * 每帧按 {@link SettleScroller} 的时钟计算分割位置，动画结束或当前滤镜改变时交还结束回调，
+ * 由渲染器在主线程执行一次。
+ */
+class RenderSettle {
+
+    private SettleScroller mScroller;
+    //动画过程中的当前滤镜
+    private Filter mFilter;
+    private float mCurOffset;
+    private int mWidth;
+    private Runnable mOnFinished;
+    private boolean mAbandoned;
+
+    private int mScrollX;
+    private boolean mDragToLeft;
+
+    /**
+     * @param cur 动画过程中的当前滤镜，滤镜改变时动画停止
+     * @param curOffset 当前页的偏移
+     * @param width 页宽
+     * @param onFinished 动画结束后在主线程执行
+     */
+    void start(Filter cur, float curOffset, int width, SettleScroller scroller, Runnable onFinished) {
+        mScroller = scroller;
+        mFilter = cur;
+        mCurOffset = curOffset;
+        mWidth = width;
+        mOnFinished = onFinished;
+        mAbandoned = false;
+    }
+
+    /**
+     * 停止动画，不再回调
+     */
+    void cancel() {
+        mScroller = null;
+        mOnFinished = null;
+    }
+
+    boolean isRunning() {
+        return mScroller != null;
+    }
+
+    /**
+     * 推进一帧，计算这一帧的分割位置
+     * @param cur GL线程当前的滤镜，与开始时不同说明页面已改变，放弃动画
+     * @return false 动画已结束或放弃，调用 {@link #finish()} 取得结束回调
+     */
+    boolean step(Filter cur) {
+        if (cur != mFilter) {
+            mAbandoned = true;
+            return false;
+        }
+        mScroller.computeScrollOffset();
+        int x = mScroller.getCurrX();
+        mDragToLeft = FilterPagerLayout.isDragToLeft(x, mCurOffset);
+        mScrollX = FilterPagerLayout.getPageScrollX(x, mCurOffset, mWidth);
+        return !mScroller.isFinished();
+    }
+
+    /**
+     * @return 上一次 {@link #step(Filter)} 因滤镜改变而放弃，没有计算新的位置
+     */
+    boolean isAbandoned() {
+        return mAbandoned;
+    }
+
+    int getScrollX() {
+        return mScrollX;
+    }
+
+    boolean isDragToLeft() {
+        return mDragToLeft;
+    }
+
+    /**
+     * 结束动画
+     * @return 需要在主线程执行的结束回调
+     */
+    Runnable finish() {
+        Runnable onFinished = mOnFinished;
+        cancel();
+        return onFinished;
+    }
+}
@@ -0,0 +1,166 @@
+package com.mrq.library.gpufilterpager;
+
+import android.opengl.GLES20;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 离屏渲染目标（FBO + 纹理）池，只能在GL线程中使用。
+ * 按尺寸分桶，引用计数为0的渲染目标放入空闲列表等待复用，空闲部分超过预算时删除最久未用的。
+ * 由于绘制时会采样整张纹理，每个桶的尺寸就是渲染目标的实际尺寸。
+ */
+class RenderTargetPool {
+
+    static final long DEFAULT_MAX_IDLE_BYTES = 16 * 1024 * 1024;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * 一个FBO及其颜色纹理
+     */
+    static class RenderTarget {
+        final int width;
+        final int height;
+        final int framebufferId;
+        final int textureId;
+        private int mRefCount;
+
+        private RenderTarget(int width, int height, int framebufferId, int textureId) {
+            this.width = width;
+            this.height = height;
+            this.framebufferId = framebufferId;
+            this.textureId = textureId;
+        }
+
+        long getBytes() {
+            return (long) width * height * BYTES_PER_PIXEL;
+        }
+    }
+
+    private final List<RenderTarget> mActive = new ArrayList<>();
+    //按释放时间排序，下标0为最久未用
+    private final List<RenderTarget> mIdle = new ArrayList<>();
+    private final long mMaxIdleBytes;
+    private long mIdleBytes;
+    private volatile long mAllocatedBytes;
+
+    RenderTargetPool(long maxIdleBytes) {
+        mMaxIdleBytes = maxIdleBytes;
+    }
+
+    /**
+     * 获取指定尺寸的渲染目标，引用计数加1，优先复用空闲的
+     */
+    RenderTarget acquire(int width, int height) {
+        RenderTarget target = null;
+        for (int i = mIdle.size() - 1; i >= 0; i--) {
+            RenderTarget idle = mIdle.get(i);
+            if (idle.width == width && idle.height == height) {
+                target = mIdle.remove(i);
+                mIdleBytes -= target.getBytes();
+                break;
+            }
+        }
+        if (target == null) {
+            target = create(width, height);
+        }
+        target.mRefCount = 1;
+        mActive.add(target);
+        return target;
+    }
+
+    /**
+     * 引用计数减1，为0时放入空闲列表
+     */
+    void release(RenderTarget target) {
+        if (target == null || target.mRefCount <= 0) {
+            return;
+        }
+        if (--target.mRefCount > 0) {
+            return;
+        }
+        mActive.remove(target);
+        mIdle.add(target);
+        mIdleBytes += target.getBytes();
+        trimIdle(mMaxIdleBytes);
+    }
+
+    /**
+     * 删除所有空闲的渲染目标，内存不足时调用
+     */
+    void trim() {
+        trimIdle(0);
+    }
+
+    /**
+     * 删除所有渲染目标，包括还在使用的
+     */
+    void clear() {
+        trimIdle(0);
+        for (int i = mActive.size() - 1; i >= 0; i--) {
+            RenderTarget target = mActive.remove(i);
+            target.mRefCount = 0;
+            delete(target);
+        }
+    }
+
+    /**
+     * GL上下文已重建，旧的FBO和纹理全部失效，直接丢弃记录
+     */
+    void invalidate() {
+        mActive.clear();
+        mIdle.clear();
+        mIdleBytes = 0;
+        mAllocatedBytes = 0;
+    }
+
+    /**
+     * @return 当前占用的显存字节数，包括空闲的，可在任意线程调用
+     */
+    long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    private void trimIdle(long maxIdleBytes) {
+        while (mIdleBytes > maxIdleBytes && !mIdle.isEmpty()) {
+            RenderTarget target = mIdle.remove(0);
+            mIdleBytes -= target.getBytes();
+            delete(target);
+        }
+    }
+
+    private RenderTarget create(int width, int height) {
+        int[] frameBuffers = new int[1];
+        int[] textures = new int[1];
+        GLES20.glGenFramebuffers(1, frameBuffers, 0);
+        GLES20.glGenTextures(1, textures, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffers[0]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, textures[0], 0);
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+        RenderTarget target = new RenderTarget(width, height, frameBuffers[0], textures[0]);
+        mAllocatedBytes += target.getBytes();
+        return target;
+    }
+
+    private void delete(RenderTarget target) {
+        GLES20.glDeleteFramebuffers(1, new int[]{target.framebufferId}, 0);
+        GLES20.glDeleteTextures(1, new int[]{target.textureId}, 0);
+        mAllocatedBytes -= target.getBytes();
+    }
+}
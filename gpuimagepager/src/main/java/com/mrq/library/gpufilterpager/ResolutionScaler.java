@@ -0,0 +1,78 @@
+package com.mrq.library.gpufilterpager;
+
+/**
+ * 根据实测的每帧开销（CPU提交时间加GPU执行时间，见 {@link FrameCostTimer}）调整滑动过程中的渲染分辨率，
+ * 只能在GL线程中使用。开销超过一个刷新周期时降低分辨率，明显低于时逐步恢复。
+ * 不使用帧间隔：按需绘制时帧间隔取决于触摸事件，手指停住不代表GPU跟不上。
+ */
+class ResolutionScaler {
+
+    static final float DEFAULT_MIN_SCALE = 0.5f;
+    static final float DEFAULT_MAX_SCALE = 1.0f;
+    static final float DEFAULT_START_SCALE = 0.75f;
+    private static final float SCALE_STEP = 0.125f;
+    //调整之后至少观察几帧再调整
+    private static final int SETTLE_FRAMES = 8;
+    private static final float SMOOTHING = 0.2f;
+
+    private float mMinScale = DEFAULT_MIN_SCALE;
+    private float mMaxScale = DEFAULT_MAX_SCALE;
+    private float mScale = DEFAULT_START_SCALE;
+    private float mTargetFrameNanos = 1000000000f / 60;
+
+    private float mAverageFrameNanos;
+    private int mFramesSinceChange;
+
+    void setScaleRange(float minScale, float maxScale) {
+        mMinScale = Math.max(0.1f, Math.min(minScale, 1));
+        mMaxScale = Math.max(mMinScale, Math.min(maxScale, 1));
+        mScale = Math.max(mMinScale, Math.min(mScale, mMaxScale));
+    }
+
+    /**
+     * @param refreshRate 屏幕刷新率，每帧开销的目标为一个刷新周期
+     */
+    void setRefreshRate(float refreshRate) {
+        if (refreshRate > 0) {
+            mTargetFrameNanos = 1000000000f / refreshRate;
+        }
+    }
+
+    /**
+     * 记录一帧分屏绘制的实际开销
+     * @param costNanos CPU提交时间加GPU执行时间
+     */
+    void onFrameCost(long costNanos) {
+        if (costNanos < 0) {
+            return;
+        }
+        mAverageFrameNanos = mAverageFrameNanos == 0 ? costNanos
+                : mAverageFrameNanos + (costNanos - mAverageFrameNanos) * SMOOTHING;
+        if (++mFramesSinceChange < SETTLE_FRAMES) {
+            return;
+        }
+        if (mAverageFrameNanos > mTargetFrameNanos * 1.2f && mScale > mMinScale) {
+            setScale(mScale - SCALE_STEP);
+        } else if (mAverageFrameNanos < mTargetFrameNanos * 1.05f && mScale < mMaxScale) {
+            setScale(mScale + SCALE_STEP);
+        }
+    }
+
+    /**
+     * 停止滑动，下次滑动重新统计，保留当前的分辨率
+     */
+    void reset() {
+        mAverageFrameNanos = 0;
+        mFramesSinceChange = 0;
+    }
+
+    float getScale() {
+        return mScale;
+    }
+
+    private void setScale(float scale) {
+        mScale = Math.max(mMinScale, Math.min(scale, mMaxScale));
+        mAverageFrameNanos = 0;
+        mFramesSinceChange = 0;
+    }
+}
@@ -0,0 +1,173 @@
+package com.mrq.library.gpufilterpager;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static com.mrq.library.gpufilterpager.TextureRotationUtil.TEXTURE_NO_ROTATION;
+
+/**
+ * 滑动时的顶点、贴图坐标。根据缩放方式、旋转和滑动偏移计算，直接写入预先分配的FloatBuffer，
+ * 每次滑动都会调用 {@link #update}，不能有任何堆内存分配。
+ */
+class ScrollGeometry {
+
+    static final float CUBE[] = {
+            -1.0f, -1.0f,       //左下
+            1.0f, -1.0f,        //右下
+            -1.0f, 1.0f,        //左上
+            1.0f, 1.0f,         //右上
+    };
+
+    //整屏只显示一个滤镜时使用
+    final FloatBuffer cubeBuffer = createBuffer();
+    final FloatBuffer textureBuffer = createBuffer();
+    //直接分屏绘制时左右两侧的图片
+    final FloatBuffer leftCubeBuffer = createBuffer();
+    final FloatBuffer rightCubeBuffer = createBuffer();
+    final FloatBuffer leftTextureBuffer = createBuffer();
+    final FloatBuffer rightTextureBuffer = createBuffer();
+    //FBO分屏时左右两侧的全屏画面
+    final FloatBuffer leftNormalCubeBuffer = createBuffer();
+    final FloatBuffer rightNormalCubeBuffer = createBuffer();
+    final FloatBuffer leftFlipTextureBuffer = createBuffer();
+    final FloatBuffer rightFlipTextureBuffer = createBuffer();
+
+    //计算过程中的临时坐标
+    private final float[] mTextureCords = new float[8];
+    private final float[] mScaleCube = new float[8];
+    private final float[] mScaleTextureCords = new float[8];
+
+    //图片在屏幕上覆盖的面积比例
+    private float mImageCoverage = 1;
+
+    private static FloatBuffer createBuffer() {
+        return ByteBuffer.allocateDirect(CUBE.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    /**
+     * 重新计算所有坐标
+     * @param scrollX 分割位置距控件左侧的像素
+     */
+    void update(int outputWidth, int outputHeight, int imageWidth, int imageHeight,
+                Rotation rotation, boolean flipHorizontal, boolean flipVertical,
+                ScaleType scaleType, int scrollX) {
+        float width = outputWidth;
+        float height = outputHeight;
+        if (rotation == Rotation.ROTATION_270 || rotation == Rotation.ROTATION_90) {
+            width = outputHeight;
+            height = outputWidth;
+        }
+
+        //控件宽度是图片宽度的几倍
+        float ratio1 = width / imageWidth;
+        float ratio2 = height / imageHeight;
+        float ratioMax = Math.max(ratio1, ratio2);
+        //根据图片最小边长放大到控件边长
+        int imageWidthNew = Math.round(imageWidth * ratioMax);
+        int imageHeightNew = Math.round(imageHeight * ratioMax);
+
+        //放大后的图片宽度是控件宽度的几倍
+        float ratioWidth = imageWidthNew / width;
+        float ratioHeight = imageHeightNew / height;
+
+        float[] textureCords = mTextureCords;
+        float[] scaleCube = mScaleCube;
+        float[] scaleTextureCords = mScaleTextureCords;
+        TextureRotationUtil.getRotation(rotation, flipHorizontal, flipVertical, textureCords);
+        //处理缩放
+        if (scaleType == ScaleType.CENTER_CROP) {
+            float distHorizontal = (1 - 1 / ratioWidth) / 2;
+            float distVertical = (1 - 1 / ratioHeight) / 2;
+            for (int i = 0; i < 8; i += 2) {
+                scaleCube[i] = CUBE[i];
+                scaleCube[i + 1] = CUBE[i + 1];
+                scaleTextureCords[i] = addDistance(textureCords[i], distHorizontal);
+                scaleTextureCords[i + 1] = addDistance(textureCords[i + 1], distVertical);
+            }
+        } else {
+            for (int i = 0; i < 8; i += 2) {
+                scaleCube[i] = CUBE[i] / ratioHeight;
+                scaleCube[i + 1] = CUBE[i + 1] / ratioWidth;
+                scaleTextureCords[i] = textureCords[i];
+                scaleTextureCords[i + 1] = textureCords[i + 1];
+            }
+        }
+
+        for (int i = 0; i < 8; i++) {
+            cubeBuffer.put(i, scaleCube[i]);
+            textureBuffer.put(i, scaleTextureCords[i]);
+        }
+        cubeBuffer.position(0);
+        textureBuffer.position(0);
+        mImageCoverage = Math.min(1, (scaleCube[2] - scaleCube[0]) / 2)
+                * Math.min(1, (scaleCube[5] - scaleCube[1]) / 2);
+
+        float offset = scrollX * 1.0f / outputWidth;
+
+        adjustLeft(scaleCube, offset, false, leftCubeBuffer);
+        adjustRight(scaleCube, offset, false, rightCubeBuffer);
+        adjustLeft(scaleTextureCords, offset, false, leftTextureBuffer);
+        adjustRight(scaleTextureCords, offset, false, rightTextureBuffer);
+
+        adjustLeft(CUBE, offset, false, leftNormalCubeBuffer);
+        adjustRight(CUBE, offset, false, rightNormalCubeBuffer);
+        //FBO中的画面已经是旋转后的方向，直接按屏幕方向取
+        adjustLeft(TEXTURE_NO_ROTATION, offset, true, leftFlipTextureBuffer);
+        adjustRight(TEXTURE_NO_ROTATION, offset, true, rightFlipTextureBuffer);
+    }
+
+    float getImageCoverage() {
+        return mImageCoverage;
+    }
+
+    /**
+     * 调整左图顶点（或贴图选区）坐标，右边界移到偏移位置
+     * @param cords 原坐标
+     * @param offset 距离控件左侧偏移百分比
+     * @param flipVertical 是否上下翻转（FBO贴图）
+     * @param out 写入新坐标
+     */
+    private static void adjustLeft(float[] cords, float offset, boolean flipVertical, FloatBuffer out) {
+        //旋转90/270度时屏幕横向对应贴图的纵向，两个分量都要插值
+        for (int i = 0; i < 2; i++) {
+            out.put(i, cords[i]);
+            out.put(2 + i, (cords[2 + i] - cords[i]) * offset + cords[i]);
+            out.put(4 + i, cords[4 + i]);
+            out.put(6 + i, (cords[6 + i] - cords[4 + i]) * offset + cords[4 + i]);
+        }
+        flipY(flipVertical, out);
+    }
+
+    /**
+     * 调整右图顶点（或贴图选区）坐标，左边界移到偏移位置
+     * @param cords 原坐标
+     * @param offset 距离控件左侧偏移百分比
+     * @param flipVertical 是否上下翻转（FBO贴图）
+     * @param out 写入新坐标
+     */
+    private static void adjustRight(float[] cords, float offset, boolean flipVertical, FloatBuffer out) {
+        for (int i = 0; i < 2; i++) {
+            out.put(i, (cords[2 + i] - cords[i]) * offset + cords[i]);
+            out.put(2 + i, cords[2 + i]);
+            out.put(4 + i, (cords[6 + i] - cords[4 + i]) * offset + cords[4 + i]);
+            out.put(6 + i, cords[6 + i]);
+        }
+        flipY(flipVertical, out);
+    }
+
+    private static void flipY(boolean flipVertical, FloatBuffer out) {
+        if (flipVertical) {
+            for (int i = 1; i < 8; i += 2) {
+                out.put(i, 1 - out.get(i));
+            }
+        }
+        out.position(0);
+    }
+
+    private static float addDistance(float coordinate, float distance) {
+        return coordinate == 0.0f ? distance : 1 - distance;
+    }
+}
@@ -0,0 +1,111 @@
+package com.mrq.library.gpufilterpager;
+
+import android.view.animation.Interpolator;
+
+/**
+ * 水平方向的滑动动画计算，用法与 {@link android.widget.Scroller} 相同，
+ * 但时间来自 {@link FrameClock}，可以按帧时间计算位置，也可以在测试中手动推进。
+ */
+class SettleScroller {
+
+    private final Interpolator mInterpolator;
+    private FrameClock mClock;
+
+    private int mStartX;
+    private int mFinalX;
+    private int mCurrX;
+    private long mStartTime;
+    private int mDuration;
+    private boolean mFinished = true;
+
+    SettleScroller(Interpolator interpolator, FrameClock clock) {
+        mInterpolator = interpolator;
+        mClock = clock;
+    }
+
+    void setClock(FrameClock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * 开始滑动，起始时间为时钟的当前时间
+     * @param startX 起始位置
+     * @param dx 滑动距离
+     * @param duration 持续时间，毫秒
+     */
+    void startScroll(int startX, int dx, int duration) {
+        mStartX = startX;
+        mCurrX = startX;
+        mFinalX = startX + dx;
+        mDuration = duration;
+        mStartTime = mClock.uptimeMillis();
+        mFinished = false;
+    }
+
+    /**
+     * 复制当前动画，用于交给其他线程计算
+     */
+    SettleScroller snapshot() {
+        SettleScroller scroller = new SettleScroller(mInterpolator, mClock);
+        scroller.mStartX = mStartX;
+        scroller.mFinalX = mFinalX;
+        scroller.mCurrX = mCurrX;
+        scroller.mStartTime = mStartTime;
+        scroller.mDuration = mDuration;
+        scroller.mFinished = mFinished;
+        return scroller;
+    }
+
+    boolean computeScrollOffset() {
+        return computeScrollOffset(mClock.uptimeMillis());
+    }
+
+    /**
+     * 计算指定时间的位置
+     * @param timeMillis 帧时间
+     * @return false 动画已经结束
+     */
+    boolean computeScrollOffset(long timeMillis) {
+        if (mFinished) {
+            return false;
+        }
+        long passed = timeMillis - mStartTime;
+        if (passed < mDuration) {
+            float t = mInterpolator.getInterpolation(Math.max(passed, 0) * 1.0f / mDuration);
+            mCurrX = mStartX + Math.round(t * (mFinalX - mStartX));
+        } else {
+            mCurrX = mFinalX;
+            mFinished = true;
+        }
+        return true;
+    }
+
+    void abortAnimation() {
+        mCurrX = mFinalX;
+        mFinished = true;
+    }
+
+    boolean isFinished() {
+        return mFinished;
+    }
+
+    int getCurrX() {
+        return mCurrX;
+    }
+
+    int getStartX() {
+        return mStartX;
+    }
+
+    int getFinalX() {
+        return mFinalX;
+    }
+
+    int getDuration() {
+        return mDuration;
+    }
+
+    long getStartTime() {
+        return mStartTime;
+    }
+}
@@ -0,0 +1,30 @@
+package com.mrq.library.gpufilterpager;
+
+/**
+ * 两个滤镜同时可见时的绘制方式
+ * FRAMEBUFFER: 先绘制到离屏FBO再分别绘制到屏幕，共两遍全屏填充
+ * SCISSOR: 用glScissor把屏幕分成左右两部分，各自直接绘制，只有一遍全屏填充
+ */
+public enum SplitMode {
+    FRAMEBUFFER {
+        @Override
+        long getFillPixels(long screenPixels, long imagePixels) {
+            //图片绘制到FBO，再整屏绘制到屏幕
+            return imagePixels + screenPixels;
+        }
+    },
+    SCISSOR {
+        @Override
+        long getFillPixels(long screenPixels, long imagePixels) {
+            //左右两部分合起来正好是图片区域
+            return imagePixels;
+        }
+    };
+
+    /**
+     * 分屏时每帧填充的像素数
+     * @param screenPixels 屏幕像素数
+     * @param imagePixels 图片在屏幕上覆盖的像素数
+     */
+    abstract long getFillPixels(long screenPixels, long imagePixels);
+}
@@ -0,0 +1,120 @@
+package com.mrq.library.gpufilterpager;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 默认动画时钟，只能在主线程使用。
+ * API 16及以上通过Choreographer在每次垂直同步时回调，按屏幕实际刷新率运行；
+ * 更低版本退化为按60fps postDelayed。
+ */
+class SystemFrameClock implements FrameClock {
+
+    private static final long FALLBACK_FRAME_DELAY = 1000 / 60;
+
+    private final FrameClock mImpl;
+
+    SystemFrameClock() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mImpl = new ChoreographerClock();
+        } else {
+            mImpl = new HandlerClock();
+        }
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public void postFrameCallback(FrameCallback callback) {
+        mImpl.postFrameCallback(callback);
+    }
+
+    @Override
+    public void removeFrameCallback(FrameCallback callback) {
+        mImpl.removeFrameCallback(callback);
+    }
+
+    private static class ChoreographerClock implements FrameClock {
+        private final Choreographer mChoreographer = Choreographer.getInstance();
+        private final Map<FrameCallback, Choreographer.FrameCallback> mCallbacks = new IdentityHashMap<>();
+
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+
+        @Override
+        public void postFrameCallback(FrameCallback callback) {
+            mChoreographer.postFrameCallback(wrap(callback));
+        }
+
+        @Override
+        public void removeFrameCallback(FrameCallback callback) {
+            Choreographer.FrameCallback frameCallback = mCallbacks.get(callback);
+            if (frameCallback != null) {
+                mChoreographer.removeFrameCallback(frameCallback);
+            }
+        }
+
+        private Choreographer.FrameCallback wrap(final FrameCallback callback) {
+            Choreographer.FrameCallback frameCallback = mCallbacks.get(callback);
+            if (frameCallback == null) {
+                frameCallback = new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        //Choreographer的时间基准与uptimeMillis相同
+                        callback.doFrame(frameTimeNanos / 1000000);
+                    }
+                };
+                mCallbacks.put(callback, frameCallback);
+            }
+            return frameCallback;
+        }
+    }
+
+    private static class HandlerClock implements FrameClock {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+        private final Map<FrameCallback, Runnable> mCallbacks = new IdentityHashMap<>();
+
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+
+        @Override
+        public void postFrameCallback(FrameCallback callback) {
+            mHandler.postDelayed(wrap(callback), FALLBACK_FRAME_DELAY);
+        }
+
+        @Override
+        public void removeFrameCallback(FrameCallback callback) {
+            Runnable runnable = mCallbacks.get(callback);
+            if (runnable != null) {
+                mHandler.removeCallbacks(runnable);
+            }
+        }
+
+        private Runnable wrap(final FrameCallback callback) {
+            Runnable runnable = mCallbacks.get(callback);
+            if (runnable == null) {
+                runnable = new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.doFrame(SystemClock.uptimeMillis());
+                    }
+                };
+                mCallbacks.put(callback, runnable);
+            }
+            return runnable;
+        }
+    }
+}
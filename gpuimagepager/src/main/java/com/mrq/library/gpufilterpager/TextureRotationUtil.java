@@ -37,6 +37,17 @@ public class TextureRotationUtil {
 
     public static float[] getRotation(final Rotation rotation, final boolean flipHorizontal,
                                       final boolean flipVertical) {
+        float[] rotatedTex = new float[8];
+        getRotation(rotation, flipHorizontal, flipVertical, rotatedTex);
+        return rotatedTex;
+    }
+
+    /**
+     * 获取旋转、翻转后的贴图坐标，写入传入的数组，不分配内存
+     * @param out 长度至少为8的数组
+     */
+    public static void getRotation(final Rotation rotation, final boolean flipHorizontal,
+                                   final boolean flipVertical, final float[] out) {
         float[] rotatedTex;
         switch (rotation) {
             case ROTATION_90:
@@ -53,23 +64,10 @@ public class TextureRotationUtil {
                 rotatedTex = TEXTURE_NO_ROTATION;
                 break;
         }
-        if (flipHorizontal) {
-            rotatedTex = new float[]{
-                    flip(rotatedTex[0]), rotatedTex[1],
-                    flip(rotatedTex[2]), rotatedTex[3],
-                    flip(rotatedTex[4]), rotatedTex[5],
-                    flip(rotatedTex[6]), rotatedTex[7],
-            };
+        for (int i = 0; i < 8; i += 2) {
+            out[i] = flipHorizontal ? flip(rotatedTex[i]) : rotatedTex[i];
+            out[i + 1] = flipVertical ? flip(rotatedTex[i + 1]) : rotatedTex[i + 1];
         }
-        if (flipVertical) {
-            rotatedTex = new float[]{
-                    rotatedTex[0], flip(rotatedTex[1]),
-                    rotatedTex[2], flip(rotatedTex[3]),
-                    rotatedTex[4], flip(rotatedTex[5]),
-                    rotatedTex[6], flip(rotatedTex[7]),
-            };
-        }
-        return rotatedTex;
     }
 
 
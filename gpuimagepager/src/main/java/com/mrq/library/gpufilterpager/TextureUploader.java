@@ -0,0 +1,252 @@
+package com.mrq.library.gpufilterpager;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.util.LinkedList;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+/**
+ * 在后台线程的共享EGL上下文中创建并上传图片纹理，上传完成（fence或glFinish）后再交给渲染线程，
+ * 大图上传期间渲染线程继续用旧纹理按帧率绘制。
+ * 任务按提交顺序执行，新的上传会跳过还没开始的旧上传。
+ * 共享上下文不可用时 {@link #upload} 返回false，由调用方在GL线程中同步上传。
+ */
+class TextureUploader implements FilterPrewarmer.SharedContextClient {
+    private static final String TAG = "GPUImagePager";
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+    private static final long FENCE_TIMEOUT_NANOS = 1000 * 1000000L;
+
+    /**
+     * 上传完成，在上传线程中回调
+     */
+    interface Callback {
+
+        /**
+         * @param sequence 提交上传时的序号
+         * @param generation 纹理所属的上下文代数，与 {@link #getGeneration()} 不同时纹理已失效
+         */
+        void onUploaded(ImageTexture texture, ImageOrientation orientation, int sequence, int generation);
+
+        /**
+         * 上下文销毁时还没上传，交还调用方在新的上下文中上传
+         */
+        void onDropped(Bitmap bitmap, ImageOrientation orientation, boolean recycle, int sequence);
+    }
+
+    private static class Upload {
+        final Bitmap bitmap;
+        final ImageOrientation orientation;
+        final boolean recycle;
+        final int sequence;
+        final Callback callback;
+
+        Upload(Bitmap bitmap, ImageOrientation orientation, boolean recycle, int sequence, Callback callback) {
+            this.bitmap = bitmap;
+            this.orientation = orientation;
+            this.recycle = recycle;
+            this.sequence = sequence;
+            this.callback = callback;
+        }
+    }
+
+    private final Object mLock = new Object();
+    //Upload或不需要GL的Runnable
+    private final LinkedList<Object> mQueue = new LinkedList<>();
+    private int mLatestSequence;
+    private UploadThread mThread;
+    private volatile boolean mAvailable;
+    private volatile int mGeneration;
+
+    @Override
+    public void onContextCreated(EGL10 egl, EGLDisplay display, EGLConfig config, EGLContext context) {
+        int[] attribList = {EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE};
+        EGLContext shared = egl.eglCreateContext(display, config, context, attribList);
+        mGeneration++;
+        if (shared == null || shared == EGL10.EGL_NO_CONTEXT) {
+            Log.w(TAG, "create upload context failed, textures will be uploaded on GL thread");
+            return;
+        }
+        mThread = new UploadThread(egl, display, config, shared, mGeneration);
+        mThread.start();
+    }
+
+    @Override
+    public void onContextDestroyed() {
+        mAvailable = false;
+        if (mThread != null) {
+            mThread.quit();
+            mThread = null;
+        }
+    }
+
+    /**
+     * @return 当前上下文的代数
+     */
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * 提交上传
+     * @return false 共享上下文不可用，没有提交
+     */
+    boolean upload(Bitmap bitmap, ImageOrientation orientation, boolean recycle, int sequence, Callback callback) {
+        synchronized (mLock) {
+            if (!mAvailable) {
+                return false;
+            }
+            mLatestSequence = sequence;
+            mQueue.add(new Upload(bitmap, orientation, recycle, sequence, callback));
+            mLock.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * 在之前提交的上传都结束后执行，用于回收Bitmap
+     * @return false 上传线程不可用，没有提交
+     */
+    boolean runAfterUploads(Runnable runnable) {
+        synchronized (mLock) {
+            if (!mAvailable) {
+                return false;
+            }
+            mQueue.add(runnable);
+            mLock.notifyAll();
+            return true;
+        }
+    }
+
+    private class UploadThread extends Thread {
+        private final EGL10 mEgl;
+        private final EGLDisplay mDisplay;
+        private final EGLConfig mConfig;
+        private final EGLContext mContext;
+        private final int mThreadGeneration;
+        private boolean mQuit;
+        private boolean mUseFence;
+
+        UploadThread(EGL10 egl, EGLDisplay display, EGLConfig config, EGLContext context, int generation) {
+            super("TextureUploader");
+            mEgl = egl;
+            mDisplay = display;
+            mConfig = config;
+            mContext = context;
+            mThreadGeneration = generation;
+        }
+
+        void quit() {
+            synchronized (mLock) {
+                mQuit = true;
+                mLock.notifyAll();
+            }
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            int[] surfaceAttribs = {EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE};
+            EGLSurface surface = mEgl.eglCreatePbufferSurface(mDisplay, mConfig, surfaceAttribs);
+            if (surface == null || surface == EGL10.EGL_NO_SURFACE
+                    || !mEgl.eglMakeCurrent(mDisplay, surface, surface, mContext)) {
+                Log.w(TAG, "upload context unavailable, error " + mEgl.eglGetError());
+                if (surface != null && surface != EGL10.EGL_NO_SURFACE) {
+                    mEgl.eglDestroySurface(mDisplay, surface);
+                }
+                mEgl.eglDestroyContext(mDisplay, mContext);
+                return;
+            }
+            mUseFence = OpenGlUtils.isGles3();
+            synchronized (mLock) {
+                mAvailable = !mQuit;
+            }
+            try {
+                loop();
+            } finally {
+                mEgl.eglMakeCurrent(mDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE,
+                        EGL10.EGL_NO_CONTEXT);
+                mEgl.eglDestroySurface(mDisplay, surface);
+                mEgl.eglDestroyContext(mDisplay, mContext);
+            }
+        }
+
+        private void loop() {
+            while (true) {
+                Object task;
+                boolean superseded = false;
+                synchronized (mLock) {
+                    while (!mQuit && mQueue.isEmpty()) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            mQuit = true;
+                        }
+                    }
+                    if (mQuit) {
+                        runRemaining();
+                        return;
+                    }
+                    task = mQueue.removeFirst();
+                    if (task instanceof Upload) {
+                        superseded = ((Upload) task).sequence != mLatestSequence;
+                    }
+                }
+                if (task instanceof Upload) {
+                    Upload upload = (Upload) task;
+                    if (!superseded) {
+                        upload(upload);
+                    } else if (upload.recycle) {
+                        upload.bitmap.recycle();
+                    }
+                } else {
+                    ((Runnable) task).run();
+                }
+            }
+        }
+
+        //上下文已销毁，交还最新的上传，执行不需要GL的任务
+        private void runRemaining() {
+            mAvailable = false;
+            while (!mQueue.isEmpty()) {
+                Object task = mQueue.removeFirst();
+                if (task instanceof Runnable) {
+                    ((Runnable) task).run();
+                } else {
+                    Upload upload = (Upload) task;
+                    if (upload.sequence == mLatestSequence) {
+                        upload.callback.onDropped(upload.bitmap, upload.orientation, upload.recycle, upload.sequence);
+                    } else if (upload.recycle) {
+                        upload.bitmap.recycle();
+                    }
+                }
+            }
+        }
+
+        private void upload(Upload upload) {
+            PagerTracer tracer = PagerTrace.begin(PagerTrace.UPLOAD_TEXTURE);
+            ImageTexture texture = ImageTexture.upload(upload.bitmap, null, upload.recycle);
+            //等待上传完成，渲染线程拿到纹理后可以直接使用
+            if (mUseFence) {
+                long sync = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+                GLES30.glClientWaitSync(sync, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT_NANOS);
+                GLES30.glDeleteSync(sync);
+            } else {
+                GLES20.glFinish();
+            }
+            PagerTrace.end(tracer);
+            upload.callback.onUploaded(texture, upload.orientation, upload.sequence, mThreadGeneration);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.mrq.library.gpufilterpager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FilterProfilerTest {
+
+    private FakeTimingSource mSource;
+    private FilterProfiler mProfiler;
+    private final Filter mCheap = new TestFilter("cheap");
+    private final Filter mExpensive = new TestFilter("expensive");
+
+    @Before
+    public void setUp() {
+        mSource = new FakeTimingSource();
+        mProfiler = new FilterProfiler();
+        mProfiler.setTimingSource(mSource);
+    }
+
+    @Test
+    public void reportIsRankedByAverageCost() {
+        draw(mCheap, 1000000);
+        draw(mExpensive, 10000000);
+        draw(mCheap, 3000000);
+        mProfiler.collect();
+
+        List<FilterCost> report = mProfiler.getReport();
+        assertEquals(2, report.size());
+        assertEquals("expensive", report.get(0).getName());
+        assertEquals(10.0, report.get(0).getAverageMillis(), 1e-9);
+        assertEquals("cheap", report.get(1).getName());
+        assertEquals(2, report.get(1).getDrawCount());
+        assertEquals(2.0, report.get(1).getAverageMillis(), 1e-9);
+        assertEquals(3.0, report.get(1).getMaxMillis(), 1e-9);
+    }
+
+    @Test
+    public void resultsAreCollectedWhenAvailable() {
+        mSource.latency = 2;
+        draw(mCheap, 1000000);
+        mProfiler.collect();
+        assertTrue(mProfiler.getReport().isEmpty());
+        mProfiler.collect();
+        assertTrue(mProfiler.getReport().isEmpty());
+        mProfiler.collect();
+        assertEquals(1, mProfiler.getReport().size());
+    }
+
+    @Test
+    public void disjointDiscardsPendingQueries() {
+        mSource.latency = 1;
+        draw(mCheap, 1000000);
+        mSource.disjoint = true;
+        mProfiler.collect();
+        mSource.disjoint = false;
+        mProfiler.collect();
+        assertTrue(mProfiler.getReport().isEmpty());
+        assertEquals(1, mSource.discarded);
+    }
+
+    @Test
+    public void releaseKeepsCollectedStats() {
+        draw(mCheap, 1000000);
+        mProfiler.collect();
+        mProfiler.release();
+        assertTrue(mSource.released);
+        assertEquals(1, mProfiler.getReport().size());
+        mProfiler.reset();
+        assertTrue(mProfiler.getReport().isEmpty());
+    }
+
+    private void draw(Filter filter, long nanos) {
+        mSource.nextNanos = nanos;
+        mProfiler.begin(filter);
+        mProfiler.end();
+    }
+
+    /**
+     * 假的GPU计时：每次计时的耗时由测试指定，结果在latency次查询后可用
+     */
+    private static class FakeTimingSource implements FilterProfiler.TimingSource {
+        long nextNanos;
+        int latency;
+        boolean disjoint;
+        boolean released;
+        int discarded;
+        private int mNextHandle;
+        private final Map<Integer, long[]> mQueries = new HashMap<>();
+
+        @Override
+        public int begin() {
+            int handle = mNextHandle++;
+            //耗时、剩余查询次数
+            mQueries.put(handle, new long[]{nextNanos, latency});
+            return handle;
+        }
+
+        @Override
+        public void end(int handle) {
+        }
+
+        @Override
+        public long getResult(int handle) {
+            long[] query = mQueries.get(handle);
+            if (query[1] > 0) {
+                query[1]--;
+                return -1;
+            }
+            mQueries.remove(handle);
+            return query[0];
+        }
+
+        @Override
+        public void discard(int handle) {
+            mQueries.remove(handle);
+            discarded++;
+        }
+
+        @Override
+        public boolean isDisjoint() {
+            return disjoint;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.mrq.library.gpufilterpager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameMetricsRecorderTest {
+
+    private static final long PERIOD_NANOS = 1000000000L / 60;
+    private static final long MILLIS = 1000000L;
+
+    private FrameMetricsRecorder mRecorder;
+    private long mNow = 1000 * MILLIS;
+
+    @Before
+    public void setUp() {
+        mRecorder = new FrameMetricsRecorder();
+        mRecorder.setRefreshRate(60);
+    }
+
+    @Test
+    public void pausedDragIsNotDropped() {
+        //拖动时每个触摸事件绘制一帧，中间手指停住100ms、200ms
+        frame(PERIOD_NANOS, 4 * MILLIS, false);
+        frame(PERIOD_NANOS, 4 * MILLIS, false);
+        frame(100 * MILLIS, 4 * MILLIS, false);
+        frame(PERIOD_NANOS, 4 * MILLIS, false);
+        frame(200 * MILLIS, 4 * MILLIS, false);
+        frame(PERIOD_NANOS, 4 * MILLIS, false);
+        FrameMetrics metrics = mRecorder.snapshot(true);
+        assertEquals(6, metrics.getFrameCount());
+        assertEquals(0, metrics.getDroppedFrames());
+    }
+
+    @Test
+    public void slowDragFrameIsDropped() {
+        frame(PERIOD_NANOS, 4 * MILLIS, false);
+        //一帧耗时超过两个刷新周期
+        frame(PERIOD_NANOS, 40 * MILLIS, false);
+        frame(100 * MILLIS, 4 * MILLIS, false);
+        assertEquals(2, mRecorder.snapshot(true).getDroppedFrames());
+    }
+
+    @Test
+    public void settleCountsMissedRefreshesBetweenFrames() {
+        //回弹由渲染线程连续请求下一帧，帧间隔超过刷新周期即为掉帧
+        frame(PERIOD_NANOS, 4 * MILLIS, true);
+        frame(PERIOD_NANOS, 4 * MILLIS, true);
+        frame(3 * PERIOD_NANOS, 4 * MILLIS, true);
+        frame(PERIOD_NANOS, 4 * MILLIS, false);
+        //动画结束后的下一帧由触摸触发
+        frame(500 * MILLIS, 4 * MILLIS, false);
+        assertEquals(2, mRecorder.snapshot(true).getDroppedFrames());
+    }
+
+    /**
+     * @param sinceLast 与上一帧开始的间隔
+     * @param duration 本帧耗时
+     * @param animating 本帧结束后是否还在动画中
+     */
+    private void frame(long sinceLast, long duration, boolean animating) {
+        mNow += sinceLast;
+        mRecorder.beginFrame(mNow);
+        mRecorder.endFrame(mNow + duration, animating);
+    }
+}
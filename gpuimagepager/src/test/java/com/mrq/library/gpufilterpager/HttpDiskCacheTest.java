@@ -0,0 +1,155 @@
+package com.mrq.library.gpufilterpager;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpDiskCacheTest {
+
+    private static final String ETAG = "\"v1\"";
+    private static final byte[] BODY = new byte[1000];
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+    //下一次请求返回的状态码，200时按ETag返回304
+    private volatile int mStatus = 200;
+    private volatile int mDownloads;
+    private volatile int mNotModified;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < BODY.length; i++) {
+            BODY[i] = (byte) i;
+        }
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (mStatus != 200) {
+                    exchange.sendResponseHeaders(mStatus, -1);
+                } else if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    mNotModified++;
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    mDownloads++;
+                    exchange.getResponseHeaders().set("ETag", ETAG);
+                    exchange.sendResponseHeaders(200, BODY.length);
+                    OutputStream body = exchange.getResponseBody();
+                    body.write(BODY);
+                    body.close();
+                }
+                exchange.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void revalidatesWithEtag() throws IOException {
+        HttpDiskCache cache = newCache(HttpDiskCache.DEFAULT_MAX_BYTES);
+        File first = cache.get(url("a"));
+        cache.release(first);
+        File second = cache.get(url("a"));
+        cache.release(second);
+
+        assertEquals(first, second);
+        assertEquals(1, mDownloads);
+        assertEquals(1, mNotModified);
+        assertArrayEquals(BODY, read(second));
+    }
+
+    @Test
+    public void serverErrorFallsBackToCache() throws IOException {
+        HttpDiskCache cache = newCache(HttpDiskCache.DEFAULT_MAX_BYTES);
+        cache.release(cache.get(url("a")));
+
+        mStatus = 503;
+        File file = cache.get(url("a"));
+        cache.release(file);
+        assertArrayEquals(BODY, read(file));
+    }
+
+    @Test
+    public void serverErrorWithoutCacheThrows() {
+        HttpDiskCache cache = newCache(HttpDiskCache.DEFAULT_MAX_BYTES);
+        mStatus = 500;
+        try {
+            cache.get(url("a"));
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void trimKeepsFilesBeingRead() throws IOException {
+        //只能放下一个文件
+        HttpDiskCache cache = newCache(BODY.length);
+        File a = cache.get(url("a"));
+        File b = cache.get(url("b"));
+        //a还在解码，不能被其他线程的trim删除
+        assertTrue(a.exists());
+        assertArrayEquals(BODY, read(a));
+
+        cache.release(a);
+        cache.release(b);
+        cache.trim();
+        assertEquals(1, (a.exists() ? 1 : 0) + (b.exists() ? 1 : 0));
+
+        cache.setMaxBytes(0);
+        assertFalse(a.exists());
+        assertFalse(b.exists());
+    }
+
+    private HttpDiskCache newCache(long maxBytes) {
+        return new HttpDiskCache(mFolder.getRoot(), maxBytes);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/" + path;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int count = inputStream.read(data, offset, data.length - offset);
+                if (count < 0) {
+                    break;
+                }
+                offset += count;
+            }
+        } finally {
+            inputStream.close();
+        }
+        return data;
+    }
+}
@@ -0,0 +1,59 @@
+package com.mrq.library.gpufilterpager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 按EXIF规范检查8种方向显示时左上、右上两个角对应原图的哪个角
+ */
+public class ImageOrientationTest {
+
+    //原图四个角的贴图坐标，t=0为原图第一行
+    private static final float[] TOP_LEFT = {0, 0};
+    private static final float[] TOP_RIGHT = {1, 0};
+    private static final float[] BOTTOM_LEFT = {0, 1};
+    private static final float[] BOTTOM_RIGHT = {1, 1};
+
+    @Test
+    public void everyExifOrientationMapsCorners() {
+        assertCorners(1, TOP_LEFT, TOP_RIGHT);
+        //FLIP_HORIZONTAL
+        assertCorners(2, TOP_RIGHT, TOP_LEFT);
+        //ROTATE_180
+        assertCorners(3, BOTTOM_RIGHT, BOTTOM_LEFT);
+        //FLIP_VERTICAL
+        assertCorners(4, BOTTOM_LEFT, BOTTOM_RIGHT);
+        //TRANSPOSE：沿主对角线翻转
+        assertCorners(5, TOP_LEFT, BOTTOM_LEFT);
+        //ROTATE_90：顺时针旋转90度
+        assertCorners(6, BOTTOM_LEFT, TOP_LEFT);
+        //TRANSVERSE：沿副对角线翻转
+        assertCorners(7, BOTTOM_RIGHT, TOP_RIGHT);
+        //ROTATE_270
+        assertCorners(8, TOP_RIGHT, BOTTOM_RIGHT);
+    }
+
+    @Test
+    public void unknownValuesAreNormal() {
+        assertEquals(ImageOrientation.NORMAL, ImageOrientation.fromExif(0));
+        assertEquals(ImageOrientation.NORMAL, ImageOrientation.fromExif(9));
+        assertEquals(ImageOrientation.NORMAL, ImageOrientation.fromDegrees(45));
+        assertEquals(Rotation.ROTATION_90, ImageOrientation.fromDegrees(-270).rotation);
+    }
+
+    /**
+     * @param topLeft 显示时左上角对应的原图贴图坐标
+     * @param topRight 显示时右上角对应的原图贴图坐标
+     */
+    private static void assertCorners(int exifOrientation, float[] topLeft, float[] topRight) {
+        ImageOrientation orientation = ImageOrientation.fromExif(exifOrientation);
+        //顶点顺序：左下 右下 左上 右上
+        float[] coords = TextureRotationUtil.getRotation(orientation.rotation,
+                orientation.flipHorizontal, orientation.flipVertical);
+        String message = "exif " + exifOrientation;
+        assertArrayEquals(message, topLeft, new float[]{coords[4], coords[5]}, 0);
+        assertArrayEquals(message, topRight, new float[]{coords[6], coords[7]}, 0);
+    }
+}
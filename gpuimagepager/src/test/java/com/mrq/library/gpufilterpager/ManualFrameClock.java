@@ -0,0 +1,48 @@
+package com.mrq.library.gpufilterpager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 手动推进的动画时钟，每次 {@link #advance(long)} 算一帧
+ */
+class ManualFrameClock implements FrameClock {
+
+    private long mNow;
+    private final List<FrameCallback> mCallbacks = new ArrayList<>();
+
+    ManualFrameClock(long now) {
+        mNow = now;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return mNow;
+    }
+
+    @Override
+    public void postFrameCallback(FrameCallback callback) {
+        mCallbacks.add(callback);
+    }
+
+    @Override
+    public void removeFrameCallback(FrameCallback callback) {
+        mCallbacks.remove(callback);
+    }
+
+    /**
+     * 时间前进并执行这一帧之前提交的回调
+     */
+    void advance(long millis) {
+        mNow += millis;
+        List<FrameCallback> callbacks = new ArrayList<>(mCallbacks);
+        mCallbacks.clear();
+        for (int i = 0; i < callbacks.size(); i++) {
+            callbacks.get(i).doFrame(mNow);
+        }
+    }
+
+    boolean hasCallbacks() {
+        return !mCallbacks.isEmpty();
+    }
+}
@@ -0,0 +1,37 @@
+package com.mrq.library.gpufilterpager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 只检查上传时选择的GL_UNPACK_ALIGNMENT：本地单元测试中android.jar的Bitmap和GLES20都不可用，
+ * 无法观察setImageBitmap、ImageTexture.upload实际交给GL的Bitmap，是否重新出现补齐宽度的复制需要在设备上确认
+ */
+public class OpenGlUtilsTest {
+
+    //ALPHA_8、RGB_565、ARGB_8888每像素字节数
+    private static final int[] BYTES_PER_PIXEL = {1, 2, 4};
+
+    @Test
+    public void everyWidthUploadsWithoutPadding() {
+        for (int bytesPerPixel : BYTES_PER_PIXEL) {
+            for (int width = 1; width <= 4097; width++) {
+                //Bitmap的行是紧密排列的，对齐值能整除行字节数时GL按原图读取，不需要补齐宽度再复制一份
+                int rowBytes = width * bytesPerPixel;
+                int alignment = OpenGlUtils.getUnpackAlignment(rowBytes);
+                assertEquals("width " + width + " bpp " + bytesPerPixel, 0, rowBytes % alignment);
+            }
+        }
+    }
+
+    @Test
+    public void oddWidthLowersAlignment() {
+        //RGB_565奇数宽度的行只能按2字节对齐，默认的4会错位
+        assertEquals(2, OpenGlUtils.getUnpackAlignment(1081 * 2));
+        assertEquals(1, OpenGlUtils.getUnpackAlignment(1081));
+        //能按4对齐时保持默认值，不改变GL状态
+        assertEquals(4, OpenGlUtils.getUnpackAlignment(1081 * 4));
+        assertEquals(4, OpenGlUtils.getUnpackAlignment(1080 * 2));
+    }
+}
@@ -0,0 +1,212 @@
+package com.mrq.library.gpufilterpager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class RenderCommandQueueTest {
+
+    private final Filter mA = new TestFilter("a");
+    private final Filter mB = new TestFilter("b");
+    private final Filter mC = new TestFilter("c");
+    private final Filter mD = new TestFilter("d");
+
+    private RenderCommandQueue mQueue;
+    private RecordingTarget mTarget;
+
+    @Before
+    public void setUp() {
+        mQueue = new RenderCommandQueue(4);
+        mTarget = new RecordingTarget();
+    }
+
+    @Test
+    public void dragRunsConstantWorkPerFrame() {
+        mQueue.postFilters(mA, mB, mC);
+        for (int x = 0; x < 500; x++) {
+            mQueue.postScroll(mB, x, true);
+        }
+        assertEquals(2, mQueue.drain(mTarget));
+        assertEquals(499, mQueue.takeCoalescedCount());
+        assertEquals(0, mQueue.takeCoalescedCount());
+        assertEquals(1, mTarget.filterCalls);
+        assertEquals(1, mTarget.scrollCalls);
+        assertEquals(499, mTarget.scrollX);
+    }
+
+    @Test
+    public void scrollForReplacedFilterIsDropped() {
+        mQueue.postFilters(mA, mB, mC);
+        mQueue.drain(mTarget);
+        mQueue.postScroll(mB, 100, false);
+        mQueue.postFilters(mB, mC, mD);
+        assertFalse(mQueue.postScroll(mB, 200, false));
+        mQueue.drain(mTarget);
+        assertSame(mC, mTarget.cur);
+        assertEquals(0, mTarget.scrollCalls);
+    }
+
+    @Test
+    public void commandsRunInPostOrderBetweenFiltersAndScroll() {
+        final List<String> order = new ArrayList<>();
+        mQueue.post(new Runnable() {
+            @Override
+            public void run() {
+                order.add("first " + mTarget.cur + " " + mTarget.scrollCalls);
+            }
+        });
+        mQueue.postFilters(mA, mB, mC);
+        mQueue.postScroll(mB, 10, true);
+        mQueue.post(new Runnable() {
+            @Override
+            public void run() {
+                order.add("second");
+            }
+        });
+        mQueue.drain(mTarget);
+        //滤镜先于所有普通命令生效，滑动最后生效
+        assertEquals("first b 0", order.get(0));
+        assertEquals("second", order.get(1));
+        assertEquals(1, mTarget.scrollCalls);
+    }
+
+    @Test
+    public void overfilledQueueKeepsOrderWhileNothingDrains() {
+        //surface没有创建或已暂停，GL线程不执行命令，提交不能失败
+        final List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            mQueue.post(new RecordingCommand(order, i));
+        }
+        assertEquals(100, mQueue.drain(mTarget));
+        assertEquals(100, order.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+
+        //溢出列表执行完后回到环形队列，空间可以复用
+        order.clear();
+        for (int i = 0; i < 4; i++) {
+            mQueue.post(new RecordingCommand(order, i));
+        }
+        assertEquals(4, mQueue.drain(mTarget));
+        assertEquals(4, order.size());
+        assertEquals(0, mQueue.drain(mTarget));
+    }
+
+    @Test
+    public void commandPostedWhileSpillingRunsInSameDrain() {
+        final List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            mQueue.post(new RecordingCommand(order, i));
+        }
+        mQueue.post(new Runnable() {
+            @Override
+            public void run() {
+                mQueue.post(new RecordingCommand(order, 6));
+            }
+        });
+        assertEquals(7, mQueue.drain(mTarget));
+        assertEquals(6, order.size());
+        assertEquals(Integer.valueOf(6), order.get(5));
+    }
+
+    @Test
+    public void concurrentPostsAreAllRun() throws InterruptedException {
+        final RenderCommandQueue queue = new RenderCommandQueue(RenderCommandQueue.DEFAULT_CAPACITY);
+        final CountingCommand command = new CountingCommand();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 50; j++) {
+                        queue.post(command);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(200, queue.drain(mTarget));
+        assertEquals(200, command.count);
+    }
+
+    @Test
+    public void concurrentSpillKeepsPerThreadOrder() throws InterruptedException {
+        final List<Integer> order = new ArrayList<>();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 50; j++) {
+                        mQueue.post(new RecordingCommand(order, thread * 1000 + j));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(200, mQueue.drain(mTarget));
+        int[] last = {-1, -1, -1, -1};
+        for (int i = 0; i < order.size(); i++) {
+            int value = order.get(i);
+            assertEquals(last[value / 1000] + 1, value % 1000);
+            last[value / 1000] = value % 1000;
+        }
+    }
+
+    private static class RecordingCommand implements Runnable {
+        private final List<Integer> mOrder;
+        private final int mIndex;
+
+        RecordingCommand(List<Integer> order, int index) {
+            mOrder = order;
+            mIndex = index;
+        }
+
+        @Override
+        public void run() {
+            mOrder.add(mIndex);
+        }
+    }
+
+    private static class CountingCommand implements Runnable {
+        int count;
+
+        @Override
+        public void run() {
+            count++;
+        }
+    }
+
+    private static class RecordingTarget implements RenderCommandQueue.Target {
+        Filter cur;
+        int filterCalls;
+        int scrollCalls;
+        int scrollX;
+
+        @Override
+        public void setFilters(Filter left, Filter cur, Filter right) {
+            this.cur = cur;
+            filterCalls++;
+        }
+
+        @Override
+        public void setScroll(int scrollX, boolean dragToLeft) {
+            this.scrollX = scrollX;
+            scrollCalls++;
+        }
+    }
+}
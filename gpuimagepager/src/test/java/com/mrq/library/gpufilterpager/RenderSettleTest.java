@@ -0,0 +1,153 @@
+package com.mrq.library.gpufilterpager;
+
+import android.view.animation.Interpolator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 按FilterPagerLayout和GPUImageRenderer之间的命令顺序，模拟渲染线程执行的滑动动画
+ */
+public class RenderSettleTest {
+
+    private static final int WIDTH = 1000;
+    private static final long FRAME_MILLIS = 16;
+
+    private static final Interpolator LINEAR = new Interpolator() {
+        @Override
+        public float getInterpolation(float input) {
+            return input;
+        }
+    };
+
+    private final Filter[] mItems = {
+            new TestFilter("0"), new TestFilter("1"), new TestFilter("2"), new TestFilter("3")
+    };
+
+    private ManualFrameClock mClock;
+    private RenderCommandQueue mQueue;
+    private RenderSettle mSettle;
+    private Filter mCurFilter;
+    private final List<Integer> mScrollXs = new ArrayList<>();
+    private int mFinishedCount;
+
+    private final RenderCommandQueue.Target mTarget = new RenderCommandQueue.Target() {
+        @Override
+        public void setFilters(Filter left, Filter cur, Filter right) {
+            mCurFilter = cur;
+        }
+
+        @Override
+        public void setScroll(int scrollX, boolean dragToLeft) {
+        }
+    };
+
+    private final Runnable mOnFinished = new Runnable() {
+        @Override
+        public void run() {
+            mFinishedCount++;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mClock = new ManualFrameClock(0);
+        mQueue = new RenderCommandQueue(16);
+        mSettle = new RenderSettle();
+        postWindow(0);
+        drawFrame();
+    }
+
+    @Test
+    public void setCurrentItemAnimatesOnRenderThread() {
+        //setCurrentItem(2, true)：先切换到目标页的窗口，再开始动画
+        postWindow(2);
+        startSettle(2, 0, 2 * WIDTH, 320);
+
+        int frames = 0;
+        while (mFinishedCount == 0) {
+            mClock.advance(FRAME_MILLIS);
+            drawFrame();
+            frames++;
+        }
+        assertEquals(20, frames);
+        assertEquals(1, mFinishedCount);
+        //动画过程中左侧页的分割线从右向左移动，最后一帧目标页占满屏幕
+        for (int i = 1; i < mScrollXs.size() - 1; i++) {
+            assertTrue(mScrollXs.get(i) < mScrollXs.get(i - 1));
+        }
+        assertFalse(mSettle.isDragToLeft());
+        assertEquals(WIDTH, (int) mScrollXs.get(mScrollXs.size() - 1));
+        assertFalse(mSettle.isRunning());
+    }
+
+    @Test
+    public void settleWithStaleWindowIsAbandoned() {
+        //没有切换窗口就开始动画，第一帧发现当前滤镜不一致
+        startSettle(2, 0, 2 * WIDTH, 320);
+        mClock.advance(FRAME_MILLIS);
+        drawFrame();
+        assertTrue(mSettle.isAbandoned());
+        assertEquals(1, mFinishedCount);
+        assertTrue(mScrollXs.isEmpty());
+    }
+
+    @Test
+    public void cancelledSettleDoesNotFinish() {
+        postWindow(1);
+        startSettle(1, 0, WIDTH, 320);
+        mClock.advance(FRAME_MILLIS);
+        drawFrame();
+        mQueue.post(new Runnable() {
+            @Override
+            public void run() {
+                mSettle.cancel();
+            }
+        });
+        mClock.advance(FRAME_MILLIS);
+        drawFrame();
+        assertFalse(mSettle.isRunning());
+        assertEquals(0, mFinishedCount);
+    }
+
+    private void postWindow(int item) {
+        mQueue.postFilters(item > 0 ? mItems[item - 1] : null, mItems[item],
+                item + 1 < mItems.length ? mItems[item + 1] : null);
+    }
+
+    private void startSettle(final int item, int startX, int dx, int duration) {
+        final SettleScroller scroller = new SettleScroller(LINEAR, mClock);
+        scroller.startScroll(startX, dx, duration);
+        mQueue.post(new Runnable() {
+            @Override
+            public void run() {
+                mSettle.start(mItems[item], item * WIDTH, WIDTH, scroller.snapshot(), mOnFinished);
+            }
+        });
+    }
+
+    //与GPUImageRenderer.drawFrame相同：执行命令后推进动画
+    private void drawFrame() {
+        mQueue.drain(mTarget);
+        if (!mSettle.isRunning()) {
+            return;
+        }
+        boolean running = mSettle.step(mCurFilter);
+        if (!mSettle.isAbandoned()) {
+            mScrollXs.add(mSettle.getScrollX());
+        }
+        if (!running) {
+            Runnable onFinished = mSettle.finish();
+            assertNotNull(onFinished);
+            onFinished.run();
+        }
+    }
+}
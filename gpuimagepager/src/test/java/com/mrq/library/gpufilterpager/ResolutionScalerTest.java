@@ -0,0 +1,149 @@
+package com.mrq.library.gpufilterpager;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResolutionScalerTest {
+
+    private static final long FRAME_NANOS = 1000000000L / 60;
+
+    @Test
+    public void slowFramesLowerScale() {
+        ResolutionScaler scaler = new ResolutionScaler();
+        for (int i = 0; i < 32; i++) {
+            scaler.onFrameCost(FRAME_NANOS * 2);
+        }
+        assertEquals(ResolutionScaler.DEFAULT_MIN_SCALE, scaler.getScale(), 0);
+    }
+
+    @Test
+    public void fastFramesRaiseScale() {
+        ResolutionScaler scaler = new ResolutionScaler();
+        for (int i = 0; i < 32; i++) {
+            scaler.onFrameCost(FRAME_NANOS / 4);
+        }
+        assertEquals(ResolutionScaler.DEFAULT_MAX_SCALE, scaler.getScale(), 0);
+    }
+
+    @Test
+    public void pausedDragKeepsScale() {
+        //按需绘制时手指停住半秒，两帧之间没有开销样本，只有绘制本身的耗时计入
+        FakeTimingSource queries = new FakeTimingSource();
+        FrameCostTimer timer = new FrameCostTimer(queries, false);
+        ResolutionScaler scaler = new ResolutionScaler();
+        queries.nextNanos = FRAME_NANOS / 4;
+        for (int i = 0; i < 32; i++) {
+            scaler.onFrameCost(timer.takeCost());
+            timer.begin();
+            timer.end(FRAME_NANOS / 4);
+            if (i % 4 == 0) {
+                sleepQuietly(20);
+            }
+        }
+        assertEquals(ResolutionScaler.DEFAULT_MAX_SCALE, scaler.getScale(), 0);
+    }
+
+    @Test
+    public void costAddsGpuTimeToCpuTime() {
+        FakeTimingSource queries = new FakeTimingSource();
+        queries.latency = 1;
+        FrameCostTimer timer = new FrameCostTimer(queries, false);
+        queries.nextNanos = 3000;
+        timer.begin();
+        timer.end(1000);
+        //GPU结果还没有返回
+        assertEquals(-1, timer.takeCost());
+        assertEquals(4000, timer.takeCost());
+        assertEquals(-1, timer.takeCost());
+    }
+
+    @Test
+    public void disjointAndResetDiscardPending() {
+        FakeTimingSource queries = new FakeTimingSource();
+        queries.latency = 10;
+        FrameCostTimer timer = new FrameCostTimer(queries, false);
+        for (int i = 0; i < 8; i++) {
+            timer.begin();
+            timer.end(1000);
+        }
+        //最多同时等待4个查询，其余的帧不计时
+        assertEquals(4, queries.mQueries.size());
+        queries.disjoint = true;
+        assertEquals(-1, timer.takeCost());
+        assertTrue(queries.mQueries.isEmpty());
+
+        queries.disjoint = false;
+        timer.begin();
+        timer.end(1000);
+        timer.reset();
+        assertTrue(queries.mQueries.isEmpty());
+    }
+
+    @Test
+    public void cpuOnlyWithoutGpuTiming() {
+        FrameCostTimer timer = new FrameCostTimer(null, false);
+        assertEquals(-1, timer.takeCost());
+        timer.begin();
+        timer.end(5000);
+        assertEquals(5000, timer.takeCost());
+        assertEquals(-1, timer.takeCost());
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class FakeTimingSource implements FilterProfiler.TimingSource {
+        long nextNanos;
+        int latency;
+        boolean disjoint;
+        private int mNextHandle;
+        //耗时、剩余查询次数
+        private final Map<Integer, long[]> mQueries = new HashMap<>();
+
+        @Override
+        public int begin() {
+            int handle = mNextHandle++;
+            mQueries.put(handle, new long[]{nextNanos, latency});
+            return handle;
+        }
+
+        @Override
+        public void end(int handle) {
+        }
+
+        @Override
+        public long getResult(int handle) {
+            long[] query = mQueries.get(handle);
+            if (query[1] > 0) {
+                query[1]--;
+                return -1;
+            }
+            mQueries.remove(handle);
+            return query[0];
+        }
+
+        @Override
+        public void discard(int handle) {
+            mQueries.remove(handle);
+        }
+
+        @Override
+        public boolean isDisjoint() {
+            return disjoint;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
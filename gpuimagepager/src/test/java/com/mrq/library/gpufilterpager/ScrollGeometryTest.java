@@ -0,0 +1,70 @@
+package com.mrq.library.gpufilterpager;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScrollGeometryTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    @Test
+    public void fullDragDoesNotAllocate() {
+        ScrollGeometry geometry = new ScrollGeometry();
+        //先拖动一次，排除类加载的分配
+        dragAll(geometry);
+        //读取计数本身的分配
+        long before = allocatedBytes();
+        long overhead = allocatedBytes() - before;
+
+        //JIT编译、反优化偶尔会在测试线程上分配，取几次中最少的；每帧的分配每次都会出现
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = allocatedBytes();
+            dragAll(geometry);
+            allocated = Math.min(allocated, allocatedBytes() - start - overhead);
+        }
+        assertEquals("bytes allocated during drag", 0, allocated);
+    }
+
+    @Test
+    public void splitFollowsScroll() {
+        ScrollGeometry geometry = new ScrollGeometry();
+        geometry.update(WIDTH, HEIGHT, WIDTH, HEIGHT, Rotation.NORMAL, false, false, ScaleType.CENTER_CROP,
+                WIDTH / 4);
+        //左图右边界和右图左边界都在控件1/4处
+        assertEquals(-0.5f, geometry.leftCubeBuffer.get(2), 1e-6f);
+        assertEquals(-0.5f, geometry.rightCubeBuffer.get(0), 1e-6f);
+        assertEquals(0.25f, geometry.leftTextureBuffer.get(2), 1e-6f);
+        assertEquals(0.25f, geometry.rightTextureBuffer.get(0), 1e-6f);
+        assertEquals(1f, geometry.getImageCoverage(), 1e-6f);
+    }
+
+    private static final Rotation[] ROTATIONS = Rotation.values();
+    private static final ScaleType[] SCALE_TYPES = ScaleType.values();
+
+    //所有旋转、翻转和缩放方式下从左到右拖动一遍
+    private static void dragAll(ScrollGeometry geometry) {
+        for (Rotation rotation : ROTATIONS) {
+            for (ScaleType scaleType : SCALE_TYPES) {
+                drag(geometry, rotation, scaleType, true);
+                drag(geometry, rotation, scaleType, false);
+            }
+        }
+    }
+
+    private static void drag(ScrollGeometry geometry, Rotation rotation, ScaleType scaleType, boolean flip) {
+        for (int x = 0; x <= WIDTH; x += 8) {
+            geometry.update(WIDTH, HEIGHT, 4000, 3000, rotation, flip, !flip, scaleType, x);
+        }
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
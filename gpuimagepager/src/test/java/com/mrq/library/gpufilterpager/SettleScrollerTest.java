@@ -0,0 +1,96 @@
+package com.mrq.library.gpufilterpager;
+
+import android.view.animation.Interpolator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SettleScrollerTest {
+
+    private static final Interpolator LINEAR = new Interpolator() {
+        @Override
+        public float getInterpolation(float input) {
+            return input;
+        }
+    };
+
+    @Test
+    public void positionFollowsClock() {
+        ManualFrameClock clock = new ManualFrameClock(1000);
+        SettleScroller scroller = new SettleScroller(LINEAR, clock);
+        scroller.startScroll(100, 200, 400);
+        assertEquals(1000, scroller.getStartTime());
+
+        clock.advance(100);
+        assertTrue(scroller.computeScrollOffset());
+        assertEquals(150, scroller.getCurrX());
+        assertFalse(scroller.isFinished());
+
+        clock.advance(300);
+        assertTrue(scroller.computeScrollOffset());
+        assertEquals(300, scroller.getCurrX());
+        assertTrue(scroller.isFinished());
+        assertFalse(scroller.computeScrollOffset());
+    }
+
+    @Test
+    public void ticksOncePerFrameAtRefreshRate() {
+        ManualFrameClock clock = new ManualFrameClock(0);
+        final SettleScroller scroller = new SettleScroller(LINEAR, clock);
+        List<Integer> positions = settle(clock, scroller, 0, 1080, 250, 8);
+        //120Hz下250ms的动画是32帧，最后一帧到达终点
+        assertEquals(32, positions.size());
+        assertEquals(1080, (int) positions.get(positions.size() - 1));
+        for (int i = 1; i < positions.size(); i++) {
+            assertTrue(positions.get(i) > positions.get(i - 1));
+        }
+        assertFalse(clock.hasCallbacks());
+    }
+
+    @Test
+    public void snapshotContinuesIndependently() {
+        ManualFrameClock clock = new ManualFrameClock(0);
+        SettleScroller scroller = new SettleScroller(LINEAR, clock);
+        scroller.startScroll(0, -400, 200);
+        clock.advance(50);
+        SettleScroller copy = scroller.snapshot();
+        scroller.abortAnimation();
+        assertTrue(scroller.isFinished());
+
+        assertTrue(copy.computeScrollOffset(100));
+        assertEquals(-200, copy.getCurrX());
+        assertTrue(copy.computeScrollOffset(250));
+        assertEquals(-400, copy.getCurrX());
+        assertTrue(copy.isFinished());
+    }
+
+    /**
+     * 按帧回调驱动动画，与FilterPagerLayout的动画循环相同
+     * @return 每一帧的位置
+     */
+    private static List<Integer> settle(final ManualFrameClock clock, final SettleScroller scroller,
+                                        int startX, int dx, int duration, long frameMillis) {
+        final List<Integer> positions = new ArrayList<>();
+        scroller.startScroll(startX, dx, duration);
+        clock.postFrameCallback(new FrameClock.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeMillis) {
+                scroller.computeScrollOffset(frameTimeMillis);
+                positions.add(scroller.getCurrX());
+                if (!scroller.isFinished()) {
+                    clock.postFrameCallback(this);
+                }
+            }
+        });
+        while (clock.hasCallbacks()) {
+            clock.advance(frameMillis);
+        }
+        return positions;
+    }
+}
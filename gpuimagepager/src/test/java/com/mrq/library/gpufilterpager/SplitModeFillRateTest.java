@@ -0,0 +1,83 @@
+package com.mrq.library.gpufilterpager;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 比较两种分屏方式拖动时每帧的填充像素：按ScrollGeometry实际绘制的矩形计算每一遍的面积，
+ * 同时检查渲染器上报的 {@link SplitMode#getFillPixels(long, long)} 与之一致
+ */
+public class SplitModeFillRateTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    //拖动一遍的帧数
+    private static final int FRAMES = (WIDTH - 1 + 7) / 8;
+
+    @Test
+    public void scissorHalvesFillRateForFullScreenImage() {
+        long[] totals = dragTotals(3000, 4000, ScaleType.CENTER_CROP);
+        //图片铺满屏幕：FBO方式两遍全屏，scissor方式一遍
+        assertEquals(describe("CENTER_CROP", totals), 2.0, (double) totals[0] / totals[1], 0.01);
+    }
+
+    @Test
+    public void scissorSkipsScreenPassForLetterboxedImage() {
+        long[] totals = dragTotals(4000, 3000, ScaleType.CENTER_INSIDE);
+        //两种方式绘制的图片面积相同，scissor每帧少一遍全屏
+        assertEquals(describe("CENTER_INSIDE", totals), (double) FRAMES * WIDTH * HEIGHT,
+                totals[0] - totals[1], FRAMES * WIDTH * HEIGHT / 1000.0);
+    }
+
+    /**
+     * 从左到右拖动一遍
+     * @return FRAMEBUFFER、SCISSOR两种方式的填充像素总数
+     */
+    private static long[] dragTotals(int imageWidth, int imageHeight, ScaleType scaleType) {
+        ScrollGeometry geometry = new ScrollGeometry();
+        long screenPixels = (long) WIDTH * HEIGHT;
+        long[] totals = new long[2];
+        for (int splitX = 1; splitX < WIDTH; splitX += 8) {
+            geometry.update(WIDTH, HEIGHT, imageWidth, imageHeight, Rotation.NORMAL, false, false,
+                    scaleType, splitX);
+            long imagePixels = (long) (screenPixels * geometry.getImageCoverage());
+
+            //FBO中左右两部分图片，再把FBO左右两部分绘制到屏幕
+            long framebuffer = area(geometry.leftCubeBuffer, -1, 1) + area(geometry.rightCubeBuffer, -1, 1)
+                    + area(geometry.leftNormalCubeBuffer, -1, 1) + area(geometry.rightNormalCubeBuffer, -1, 1);
+            //整张图片绘制两次，分别被裁剪到分割线两侧
+            float split = splitX * 2f / WIDTH - 1;
+            long scissor = area(geometry.cubeBuffer, -1, split) + area(geometry.cubeBuffer, split, 1);
+
+            assertPixels(framebuffer, SplitMode.FRAMEBUFFER.getFillPixels(screenPixels, imagePixels));
+            assertPixels(scissor, SplitMode.SCISSOR.getFillPixels(screenPixels, imagePixels));
+            totals[0] += framebuffer;
+            totals[1] += scissor;
+        }
+        return totals;
+    }
+
+    //顶点按左下 右下 左上 右上排列，x限制在[clipLeft, clipRight]内，y限制在屏幕内
+    private static long area(FloatBuffer cube, float clipLeft, float clipRight) {
+        float left = Math.max(Math.min(cube.get(0), cube.get(2)), clipLeft);
+        float right = Math.min(Math.max(cube.get(0), cube.get(2)), clipRight);
+        float bottom = Math.max(Math.min(cube.get(1), cube.get(5)), -1);
+        float top = Math.min(Math.max(cube.get(1), cube.get(5)), 1);
+        if (right <= left || top <= bottom) {
+            return 0;
+        }
+        return Math.round((right - left) / 2 * WIDTH * (top - bottom) / 2 * HEIGHT);
+    }
+
+    private static void assertPixels(long measured, long reported) {
+        assertEquals(measured, reported, WIDTH * HEIGHT / 1000.0);
+    }
+
+    private static String describe(String name, long[] totals) {
+        return String.format("split fill rate %s: FRAMEBUFFER %.2f MP/frame, SCISSOR %.2f MP/frame",
+                name, totals[0] / 1e6 / FRAMES, totals[1] / 1e6 / FRAMES);
+    }
+}
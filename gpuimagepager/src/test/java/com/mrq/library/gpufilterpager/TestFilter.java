@@ -0,0 +1,42 @@
+package com.mrq.library.gpufilterpager;
+
+import java.nio.FloatBuffer;
+
+/**
+ * 不调用GL的滤镜，记录各方法的调用次数
+ */
+class TestFilter implements Filter {
+
+    private final String mName;
+    int initCount;
+    int drawCount;
+    int destroyCount;
+
+    TestFilter(String name) {
+        mName = name;
+    }
+
+    @Override
+    public void init() {
+        initCount++;
+    }
+
+    @Override
+    public void onOutputSizeChanged(int width, int height) {
+    }
+
+    @Override
+    public void onDraw(int textureId, FloatBuffer cubeBuffer, FloatBuffer textureBuffer) {
+        drawCount++;
+    }
+
+    @Override
+    public void destroy() {
+        destroyCount++;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}